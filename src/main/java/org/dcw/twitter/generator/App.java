@@ -19,9 +19,16 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 
-import javax.swing.JFrame;
-import javax.swing.WindowConstants;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class App {
 
@@ -31,6 +38,95 @@ public class App {
         description = "File with current tweets")
     private String tweetsFile = "./tweets.json";
 
+    @Parameter(names = {"--tweet-cache-size"},
+        description = "Maximum number of parsed tweets to keep in memory")
+    private int tweetCacheSize = TweetCorpusModel.DEFAULT_CACHE_SIZE;
+
+    @Parameter(names = {"--off-heap"},
+        description = "Keep tweets outside the Java heap (size with -XX:MaxDirectMemorySize)")
+    private boolean offHeap = false;
+
+    @Parameter(names = {"-w", "--watch"},
+        description = "Pick up tweets appended to the tweets file by other programs")
+    private boolean watch = false;
+
+    @Parameter(names = {"--watch-poll-ms"},
+        description = "Longest time between checks of the tweets file when watching it")
+    private long watchPollMillis = 2000;
+
+    @Parameter(names = {"--http-port"},
+        description = "Serve retweets over HTTP on this local port (0 for none)")
+    private int httpPort = 0;
+
+    @Parameter(names = {"--http-threads"},
+        description = "HTTP request threads, if virtual threads are unavailable")
+    private int httpThreads = 4 * Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--headless"},
+        description = "Do not show the UI (e.g. when only serving retweets over HTTP)")
+    private boolean headless = false;
+
+    @Parameter(names = {"--report"},
+        description = "Print analytics of the tweets file without showing the UI")
+    private boolean report = false;
+
+    @Parameter(names = {"--report-top"},
+        description = "How many of the top authors, hashtags, mentions and languages to report")
+    private int reportTop = 20;
+
+    @Parameter(names = {"--retweet-log-sync-ms"},
+        description = "Longest time a generated retweet waits to be forced to disk in the retweet log")
+    private long retweetLogSyncMillis = RetweetLog.DEFAULT_SYNC_MILLIS;
+
+    @Parameter(names = {"--transform-to"},
+        description = "Write a transformed copy of the tweets file here and exit, applying "
+            + "--keep-if, then --drop, then --set, then --pseudonymise")
+    private String transformTo = null;
+
+    @Parameter(names = {"--keep-if"},
+        description = "Transform: keep only tweets with a value at this path, or path=value for a particular value")
+    private List<String> keepIf = new ArrayList<>();
+
+    @Parameter(names = {"--drop"},
+        description = "Transform: remove the value at this path, e.g. user.location or entities.urls")
+    private List<String> drop = new ArrayList<>();
+
+    @Parameter(names = {"--set"},
+        description = "Transform: path=value to set the value at a path (as JSON, or else as text)")
+    private List<String> set = new ArrayList<>();
+
+    @Parameter(names = {"--pseudonymise"},
+        description = "Transform: consistently replace the values at this path, e.g. user.screen_name")
+    private List<String> pseudonymise = new ArrayList<>();
+
+    @Parameter(names = {"--transform-threads"},
+        description = "Threads to transform tweets with")
+    private int transformThreads = Runtime.getRuntime().availableProcessors();
+
+    @Parameter(names = {"--generate-to"},
+        description = "Write a synthetic corpus of tweets to this file and exit")
+    private String generateTo = null;
+
+    @Parameter(names = {"--generate-count"},
+        description = "Generate: how many tweets to generate")
+    private long generateCount = 1_000_000;
+
+    @Parameter(names = {"--generate-seed"},
+        description = "Generate: the same seed and settings always generate the same corpus")
+    private long generateSeed = SyntheticCorpusGenerator.DEFAULT_SEED;
+
+    @Parameter(names = {"--generate-users"},
+        description = "Generate: how many accounts the tweets are by")
+    private int generateUsers = SyntheticCorpusGenerator.DEFAULT_USERS;
+
+    @Parameter(names = {"--generate-retweet-ratio"},
+        description = "Generate: the proportion of tweets which are retweets")
+    private double generateRetweetRatio = SyntheticCorpusGenerator.DEFAULT_RETWEET_RATIO;
+
+    @Parameter(names = {"--generate-threads"},
+        description = "Generate: threads to generate tweets with")
+    private int generateThreads = Runtime.getRuntime().availableProcessors();
+
     @Parameter(names = {"-h", "-?", "--help"}, description = "Help")
     private static boolean help = false;
 
@@ -61,21 +157,133 @@ public class App {
 
     private void run() throws IOException {
         System.out.println("Running " + APP_TITLE);
-        // load model
-        final TweetCorpusModel model = new TweetCorpusModel(tweetsFile);
+        if (transformTo != null) {
+            transform();
+            return;
+        }
+        if (generateTo != null) {
+            generate();
+            return;
+        }
+        final TweetCorpusModel model = new TweetCorpusModel(
+            tweetsFile, tweetCacheSize, offHeap ? new OffHeapTweetStore() : new HeapTweetStore()
+        );
+        final TweetStoreMXBean storeStats = model.getStoreStatistics();
+        registerMBean(storeStats);
+
+        // every retweet generated, by the UI or over HTTP, is logged next to the tweets file
+        final boolean generating = ! (headless || report) || httpPort > 0;
+        final RetweetLog retweetLog = generating
+            ? new RetweetLog(RetweetLog.pathFor(tweetsFile), retweetLogSyncMillis)
+            : null;
+        if (generating && ! report) { // only of interest after a session with the UI or server, not in a report
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Tweet cache: " + model.getCacheStats());
+                System.out.println(
+                    "Tweet store: " + storeStats.getTweetCount() + " tweets, "
+                        + storeStats.getTweetsStored() + " stored (including any removed) in "
+                        + storeStats.getBytesStored() + " bytes ("
+                        + storeStats.getBytesReserved() + " reserved "
+                        + (storeStats.isOffHeap() ? "off-heap" : "on-heap") + ")"
+                );
+            }));
+        }
+
+        if (headless || report) {
+            model.loadTweets();
+            if (report) {
+                System.out.print(CorpusAnalytics.analyse(model.snapshot()).format(reportTop));
+            }
+            if (watch) {
+                new TweetFileWatcher(model, tweetsFile, watchPollMillis, new TweetFileWatcher.Listener() {}).start();
+            }
+        } else {
+            // Swing is only loaded, via the UI class, when the UI is used
+            RetweetGeneratorUI.launch(APP_TITLE, model, retweetLog, watch ? watchPollMillis : 0L);
+        }
+
+        final RetweetServer server = httpPort > 0
+            ? new RetweetServer(model, retweetLog, httpPort, httpThreads)
+            : null;
+        if (server != null) {
+            server.start();
+        } else if (headless && ! report) {
+            System.out.println("Nothing to do: specify --http-port to serve retweets");
+        }
+        if (retweetLog != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (server != null) {
+                    server.stop(); // before the log closes, so that all its retweets are logged
+                }
+                try {
+                    retweetLog.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing the retweet log: " + e.getMessage());
+                }
+            }));
+        }
+    }
+
+    private void transform() throws IOException {
+        final CorpusTransformer transformer = new CorpusTransformer();
+        keepIf.forEach(p -> {
+            final int eq = p.indexOf('=');
+            transformer.keepIf(eq < 0 ? p : p.substring(0, eq), eq < 0 ? null : p.substring(eq + 1));
+        });
+        drop.forEach(transformer::drop);
+        for (final String p : set) {
+            final int eq = p.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("--set needs path=value, not " + p);
+            }
+            transformer.set(p.substring(0, eq), parseValue(p.substring(eq + 1)));
+        }
+        pseudonymise.forEach(transformer::pseudonymise);
 
-        // create and run GUI
-        final JFrame frame = new JFrame(APP_TITLE);
-        frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+        System.out.println("Transforming " + tweetsFile + " into " + transformTo);
+        final long start = System.currentTimeMillis();
+        final CorpusTransformer.Result result = transformer.transform(
+            Paths.get(tweetsFile), Paths.get(transformTo), transformThreads
+        );
+        System.out.println(result + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
 
-        final RetweetGeneratorUI ui = new RetweetGeneratorUI(model);
-        frame.setContentPane(ui);
-        System.out.println("UI built");
+    private void generate() throws IOException {
+        System.out.println("Generating " + generateCount + " tweets into " + generateTo);
+        final long start = System.currentTimeMillis();
+        new SyntheticCorpusGenerator(generateSeed, generateUsers, generateRetweetRatio)
+            .generate(Paths.get(generateTo), generateCount, generateThreads);
+        final long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(
+            "Generated " + generateCount + " tweets in " + elapsed + " ms ("
+                + (generateCount * 60_000 / elapsed) + " per minute)"
+        );
+    }
 
-        // Display the frame/window
-        frame.setSize(600, 400);
-        frame.setVisible(true);
+    private static JsonNode parseValue(final String value) {
+        try {
+            final JsonNode parsed = Json.readTree(value);
+            return parsed == null || parsed.isMissingNode() ? JsonNodeFactory.instance.textNode(value) : parsed;
+        } catch (IOException e) {
+            return JsonNodeFactory.instance.textNode(value);
+        }
+    }
 
-        System.out.println(APP_TITLE + " is now running...");
+    /**
+     * Makes the corpus's memory use visible to JMX tools such as jconsole. Done
+     * in the background, as starting the platform MBean server is slow.
+     */
+    private static void registerMBean(final TweetStoreMXBean storeStats) {
+        final Thread registration = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    storeStats, new ObjectName("org.dcw.twitter.generator:type=TweetStore")
+                );
+            } catch (JMException e) {
+                System.err.println("Cannot register tweet store statistics with JMX: " + e.getMessage());
+            }
+        }, "jmx-registration");
+        registration.setDaemon(true);
+        registration.start();
     }
 }
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Summarises a corpus to help choose which tweets to retweet: who wrote the
+ * tweets, which hashtags, mentions and languages they use, how deeply they
+ * nest retweets, and when they were created.
+ *
+ * Tweets are scanned in parallel straight from their raw JSON with a streaming
+ * parser, reading only the fields needed and bypassing the corpus's cache of
+ * parsed tweets, so analysing a large corpus neither builds a tree per tweet
+ * nor evicts the tweets the UI is using.
+ */
+public final class CorpusAnalytics {
+
+    /** Retweets nested deeper than this are counted at this depth. */
+    public static final int MAX_DEPTH = 15;
+
+    private static final DateTimeFormatter TWITTER_TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss Z yyyy", Locale.ENGLISH);
+    private static final String UNKNOWN_LANGUAGE = "und";
+
+    private CorpusAnalytics() {}
+
+    /**
+     * Analyses every tweet in a snapshot, using all available processors.
+     *
+     * @param snapshot The tweets to analyse.
+     * @return What was found.
+     */
+    public static Report analyse(final CorpusSnapshot snapshot) {
+        final long start = System.nanoTime();
+        final Counts counts = IntStream.range(0, snapshot.size())
+            .parallel()
+            .collect(Counts::new, (c, i) -> c.add(snapshot.getRawJson(i)), Counts::merge);
+        return new Report(counts, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * The results of analysing a corpus.
+     */
+    public static final class Report {
+        private final long tweetCount;
+        private final long unreadableCount;
+        private final long elapsedMillis;
+        private final ImmutableMultiset<String> authors;
+        private final ImmutableMultiset<String> hashtags;
+        private final ImmutableMultiset<String> mentions;
+        private final ImmutableMultiset<String> languages;
+        private final long[] retweetDepths;
+        private final long[] hours;
+        private final ImmutableSortedMap<LocalDate, Long> days;
+
+        private Report(final Counts counts, final long elapsedMillis) {
+            this.tweetCount = counts.tweets;
+            this.unreadableCount = counts.unreadable;
+            this.elapsedMillis = elapsedMillis;
+            this.authors = ImmutableMultiset.copyOf(counts.authors);
+            this.hashtags = ImmutableMultiset.copyOf(counts.hashtags);
+            this.mentions = ImmutableMultiset.copyOf(counts.mentions);
+            this.languages = ImmutableMultiset.copyOf(counts.languages);
+            this.retweetDepths = counts.depths.clone();
+            this.hours = counts.hours.clone();
+            final TreeMap<LocalDate, Long> byDay = new TreeMap<>();
+            counts.days.entrySet().forEach(e -> byDay.put(LocalDate.ofEpochDay(e.getElement()), (long) e.getCount()));
+            this.days = ImmutableSortedMap.copyOfSorted(byDay);
+        }
+
+        public long getTweetCount() {
+            return tweetCount;
+        }
+
+        /**
+         * @return How many tweets could not be analysed as their JSON was malformed.
+         */
+        public long getUnreadableCount() {
+            return unreadableCount;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** @return Tweets per author screen name. */
+        public ImmutableMultiset<String> getAuthors() {
+            return authors;
+        }
+
+        /** @return Uses of each hashtag, in lower case and without the '#'. */
+        public ImmutableMultiset<String> getHashtags() {
+            return hashtags;
+        }
+
+        /** @return Mentions of each screen name. */
+        public ImmutableMultiset<String> getMentions() {
+            return mentions;
+        }
+
+        /** @return Tweets per language code ("und" where unknown). */
+        public ImmutableMultiset<String> getLanguages() {
+            return languages;
+        }
+
+        /**
+         * @return Tweet counts indexed by how many levels of <code>retweeted_status</code>
+         *         each has, so index 0 counts original tweets and index 1 plain retweets.
+         */
+        public long[] getRetweetDepths() {
+            return retweetDepths.clone();
+        }
+
+        /** @return Tweet counts indexed by the UTC hour of day they were created. */
+        public long[] getHours() {
+            return hours.clone();
+        }
+
+        /** @return Tweet counts per UTC day of creation, in date order. */
+        public ImmutableSortedMap<LocalDate, Long> getDays() {
+            return days;
+        }
+
+        /**
+         * @param counts Counts to rank.
+         * @param n The most to return.
+         * @return Up to <code>n</code> of the highest counts, highest first.
+         */
+        public static List<Multiset.Entry<String>> top(final Multiset<String> counts, final int n) {
+            return Multisets.copyHighestCountFirst(counts).entrySet().stream()
+                .limit(n)
+                .collect(Collectors.toList());
+        }
+
+        /**
+         * @param n The most authors, hashtags, mentions and languages to list.
+         * @return A plain-text report.
+         */
+        public String format(final int n) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("Analysed ").append(tweetCount).append(" tweets in ").append(elapsedMillis).append(" ms");
+            if (unreadableCount > 0) {
+                sb.append(" (").append(unreadableCount).append(" unreadable)");
+            }
+            sb.append('\n');
+            formatTop(sb, "Top authors", authors, n);
+            formatTop(sb, "Top hashtags", hashtags, n);
+            formatTop(sb, "Top mentions", mentions, n);
+            formatTop(sb, "Languages", languages, n);
+            sb.append("Retweet depth:\n");
+            for (int depth = 0; depth < retweetDepths.length; depth++) {
+                if (retweetDepths[depth] > 0) {
+                    sb.append(String.format("  %10d  %d%s%n",
+                        retweetDepths[depth], depth, depth == MAX_DEPTH ? "+" : ""));
+                }
+            }
+            sb.append("Tweets by hour (UTC):\n");
+            for (int hour = 0; hour < hours.length; hour++) {
+                sb.append(String.format("  %10d  %02d:00%n", hours[hour], hour));
+            }
+            sb.append("Tweets by day (UTC):\n");
+            days.forEach((day, count) -> sb.append(String.format("  %10d  %s%n", count, day)));
+            return sb.toString();
+        }
+
+        private static void formatTop(
+            final StringBuilder sb,
+            final String title,
+            final Multiset<String> counts,
+            final int n
+        ) {
+            sb.append(title).append(" (").append(counts.elementSet().size()).append(" distinct):\n");
+            top(counts, n).forEach(e -> sb.append(String.format("  %10d  %s%n", e.getCount(), e.getElement())));
+        }
+    }
+
+    /**
+     * Counts for part of a corpus. Each parallel task fills its own, and they
+     * are merged at the end, so no counter is ever shared between threads.
+     */
+    private static final class Counts {
+        long tweets;
+        long unreadable;
+        final Multiset<String> authors = HashMultiset.create();
+        final Multiset<String> hashtags = HashMultiset.create();
+        final Multiset<String> mentions = HashMultiset.create();
+        final Multiset<String> languages = HashMultiset.create();
+        final Multiset<Long> days = HashMultiset.create(); // keyed by epoch day
+        final long[] depths = new long[MAX_DEPTH + 1];
+        final long[] hours = new long[24];
+
+        void add(final byte[] raw) {
+            tweets++;
+            try (JsonParser p = Json.FACTORY.createParser(raw)) {
+                if (p.nextToken() != JsonToken.START_OBJECT) {
+                    unreadable++;
+                    return;
+                }
+                int depth = 0;
+                String language = null;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = p.getCurrentName();
+                    p.nextToken();
+                    switch (field) {
+                        case "user":
+                            final String author = screenNameOf(p);
+                            if (author != null) authors.add(author);
+                            break;
+                        case "entities":
+                            countEntities(p);
+                            break;
+                        case "lang":
+                            language = textOf(p);
+                            break;
+                        case "created_at":
+                            countCreatedAt(textOf(p));
+                            break;
+                        case "retweeted_status":
+                            depth = depthOf(p);
+                            break;
+                        default:
+                            p.skipChildren();
+                    }
+                }
+                languages.add(language == null ? UNKNOWN_LANGUAGE : language);
+                depths[Math.min(depth, MAX_DEPTH)]++;
+            } catch (IOException e) {
+                unreadable++;
+            }
+        }
+
+        Counts merge(final Counts other) {
+            tweets += other.tweets;
+            unreadable += other.unreadable;
+            authors.addAll(other.authors);
+            hashtags.addAll(other.hashtags);
+            mentions.addAll(other.mentions);
+            languages.addAll(other.languages);
+            days.addAll(other.days);
+            Arrays.setAll(depths, i -> depths[i] + other.depths[i]);
+            Arrays.setAll(hours, i -> hours[i] + other.hours[i]);
+            return this;
+        }
+
+        /**
+         * @return The text of the value at the parser's current token, or
+         *         <code>null</code> if it is an object or array, which is skipped.
+         */
+        private static String textOf(final JsonParser p) throws IOException {
+            if (p.currentToken().isStructStart()) {
+                p.skipChildren();
+                return null;
+            }
+            return p.getValueAsString();
+        }
+
+        private void countEntities(final JsonParser p) throws IOException {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                return;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                if ("hashtags".equals(field)) {
+                    countArrayField(p, "text", hashtags, true);
+                } else if ("user_mentions".equals(field)) {
+                    countArrayField(p, "screen_name", mentions, false);
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        private void countCreatedAt(final String createdAt) {
+            if (createdAt == null) {
+                return;
+            }
+            try {
+                final OffsetDateTime when = OffsetDateTime.parse(createdAt, TWITTER_TIMESTAMP_FORMAT)
+                    .withOffsetSameInstant(ZoneOffset.UTC);
+                hours[when.getHour()]++;
+                days.add(when.toLocalDate().toEpochDay());
+            } catch (DateTimeParseException e) {
+                // not a Twitter timestamp, so leave it out of the histograms
+            }
+        }
+
+        /**
+         * Counts one field of each object in an array, e.g. the text of each hashtag.
+         */
+        private static void countArrayField(
+            final JsonParser p,
+            final String name,
+            final Multiset<String> counts,
+            final boolean lowerCase
+        ) throws IOException {
+            if (p.currentToken() != JsonToken.START_ARRAY) {
+                p.skipChildren();
+                return;
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = p.getCurrentName();
+                    p.nextToken();
+                    if (name.equals(field) && p.currentToken() == JsonToken.VALUE_STRING) {
+                        counts.add(lowerCase ? p.getText().toLowerCase(Locale.ROOT) : p.getText());
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            }
+        }
+
+        private static String screenNameOf(final JsonParser p) throws IOException {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                return null;
+            }
+            String screenName = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                if ("screen_name".equals(field)) {
+                    screenName = p.getValueAsString();
+                } else {
+                    p.skipChildren();
+                }
+            }
+            return screenName;
+        }
+
+        /**
+         * @return How many levels of <code>retweeted_status</code> the current value
+         *         holds, counting itself, or 0 if it is <code>null</code>.
+         */
+        private static int depthOf(final JsonParser p) throws IOException {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                return 0;
+            }
+            int nested = 0;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                if ("retweeted_status".equals(field)) {
+                    nested = depthOf(p);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            return 1 + nested;
+        }
+    }
+}
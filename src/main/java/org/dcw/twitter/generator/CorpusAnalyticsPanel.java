@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.google.common.collect.Multiset;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.util.List;
+
+/**
+ * Shows a {@link CorpusAnalytics.Report} as a set of sortable tables.
+ */
+public class CorpusAnalyticsPanel extends JPanel {
+
+    /** The most rows to show for authors, hashtags, mentions and languages. */
+    private static final int MAX_ROWS = 1000;
+
+    public CorpusAnalyticsPanel(final CorpusAnalytics.Report report) {
+        super(new BorderLayout(0, 5));
+
+        add(new JLabel(
+            "Analysed " + report.getTweetCount() + " tweets in " + report.getElapsedMillis() + " ms"
+        ), BorderLayout.NORTH);
+
+        final JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Authors", topTable("Author", "Tweets", report.getAuthors()));
+        tabs.addTab("Hashtags", topTable("Hashtag", "Uses", report.getHashtags()));
+        tabs.addTab("Mentions", topTable("Screen name", "Mentions", report.getMentions()));
+        tabs.addTab("Languages", topTable("Language", "Tweets", report.getLanguages()));
+
+        final long[] depths = report.getRetweetDepths();
+        final Object[][] depthRows = new Object[depths.length][];
+        for (int depth = 0; depth < depths.length; depth++) {
+            depthRows[depth] = new Object[] {depth, depths[depth]};
+        }
+        tabs.addTab("Retweet depth", table(depthRows, "Depth", "Tweets"));
+
+        final long[] hours = report.getHours();
+        final Object[][] hourRows = new Object[hours.length][];
+        for (int hour = 0; hour < hours.length; hour++) {
+            hourRows[hour] = new Object[] {String.format("%02d:00", hour), hours[hour]};
+        }
+        tabs.addTab("Hours (UTC)", table(hourRows, "Hour", "Tweets"));
+
+        final Object[][] dayRows = report.getDays().entrySet().stream()
+            .map(e -> new Object[] {e.getKey().toString(), e.getValue()})
+            .toArray(Object[][]::new);
+        tabs.addTab("Days (UTC)", table(dayRows, "Day", "Tweets"));
+
+        add(tabs);
+        setPreferredSize(new Dimension(500, 400));
+    }
+
+    private static JScrollPane topTable(final String name, final String countName, final Multiset<String> counts) {
+        final List<Multiset.Entry<String>> top = CorpusAnalytics.Report.top(counts, MAX_ROWS);
+        final Object[][] rows = top.stream()
+            .map(e -> new Object[] {e.getElement(), (long) e.getCount()})
+            .toArray(Object[][]::new);
+        return table(rows, name, countName);
+    }
+
+    private static JScrollPane table(final Object[][] rows, final String... columns) {
+        final DefaultTableModel tableModel = new DefaultTableModel(rows, columns) {
+            @Override
+            public boolean isCellEditable(final int row, final int column) {
+                return false;
+            }
+
+            @Override
+            public Class<?> getColumnClass(final int column) {
+                // so counts sort numerically
+                return getRowCount() == 0 ? Object.class : getValueAt(0, column).getClass();
+            }
+        };
+        final JTable table = new JTable(tableModel);
+        table.setAutoCreateRowSorter(true);
+        return new JScrollPane(table);
+    }
+}
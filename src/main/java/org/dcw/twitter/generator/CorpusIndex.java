@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import java.util.Arrays;
+
+/**
+ * One version of the index of a {@link TweetCorpusModel}: the keys of its
+ * tweets, in order, where in its {@link TweetStore} each tweet's JSON is, and
+ * each tweet's numeric Twitter ID, so it can be unindexed without parsing it.
+ *
+ * Keys are allocated in order, so the index is a list of chunks, each covering
+ * a fixed range of {@link #CHUNK_SIZE} keys, and a key's chunk is found by
+ * arithmetic rather than by search. Within a chunk, the keys present are kept
+ * in order in primitive arrays, so a removal only compacts its own chunk.
+ *
+ * A version never changes once made. Each change makes a new version sharing
+ * all the unchanged chunks with the last, so readers can use any version
+ * without locking, for as long as they like. Appends write into the spare
+ * space after the end of the last version rather than copying it, which no
+ * earlier version can see, so there must only be one writer at a time, and
+ * each version must be published safely (e.g. via a volatile field).
+ */
+final class CorpusIndex {
+    static final int CHUNK_SIZE = 4096;
+    static final long NO_REF = -1L;
+    static final long NO_ID = IdIndex.NO_ID;
+
+    private final long version;
+    private final TweetStore store;
+    private final long firstKey; // the first key of the first chunk
+    private final Chunk[] chunks; // may have spare space after chunkCount
+    private final int[] starts; // the position of each chunk's first tweet; may have spare space too
+    private final int chunkCount;
+    private final int lastSize; // the number of tweets in the last chunk
+
+    /**
+     * @param version The version of the empty index.
+     * @param store Where the tweets' JSON is to be stored.
+     * @param firstKey The first key that will be appended.
+     * @return An empty index.
+     */
+    static CorpusIndex empty(final long version, final TweetStore store, final long firstKey) {
+        return new CorpusIndex(version, store, firstKey, new Chunk[16], new int[16], 0, 0);
+    }
+
+    private CorpusIndex(
+        final long version,
+        final TweetStore store,
+        final long firstKey,
+        final Chunk[] chunks,
+        final int[] starts,
+        final int chunkCount,
+        final int lastSize
+    ) {
+        this.version = version;
+        this.store = store;
+        this.firstKey = firstKey;
+        this.chunks = chunks;
+        this.starts = starts;
+        this.chunkCount = chunkCount;
+        this.lastSize = lastSize;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    TweetStore getStore() {
+        return store;
+    }
+
+    int size() {
+        return chunkCount == 0 ? 0 : starts[chunkCount - 1] + lastSize;
+    }
+
+    /**
+     * @param i The position of a tweet.
+     * @return The tweet's key.
+     */
+    long keyAt(final int i) {
+        final int c = chunkAt(i);
+        return firstKeyOf(c) + chunks[c].slots[i - starts[c]];
+    }
+
+    /**
+     * @param i The position of a tweet.
+     * @return Where the tweet's JSON is in the store.
+     */
+    long refAt(final int i) {
+        final int c = chunkAt(i);
+        return chunks[c].refs[i - starts[c]];
+    }
+
+    /**
+     * @param key A tweet's key.
+     * @return Where the tweet's JSON is in the store, or {@link #NO_REF} if the tweet is not present.
+     */
+    long refOf(final long key) {
+        final int c = chunkOf(key);
+        if (c < 0) {
+            return NO_REF;
+        }
+        final int p = positionIn(c, key);
+        return p < 0 ? NO_REF : chunks[c].refs[p];
+    }
+
+    /**
+     * @param key The key of a tweet that is present.
+     * @return The tweet's ID, or {@link #NO_ID} if its <code>id_str</code> isn't a number.
+     */
+    long idOf(final long key) {
+        final int c = chunkOf(key);
+        final int p = c < 0 ? -1 : positionIn(c, key);
+        if (p < 0) {
+            throw new IllegalArgumentException("No tweet with key " + key);
+        }
+        return chunks[c].ids[p];
+    }
+
+    /**
+     * Adds a tweet to the end of the index.
+     *
+     * @param key The tweet's key, which must be greater than any key added before.
+     * @param ref Where the tweet's JSON is in the store.
+     * @param id The tweet's ID, or {@link #NO_ID}.
+     * @return The new version of the index.
+     */
+    CorpusIndex append(final long key, final long ref, final long id) {
+        final int c = (int) ((key - firstKey) / CHUNK_SIZE);
+        if (key < firstKey || c < chunkCount - 1) {
+            throw new IllegalArgumentException("Key " + key + " is out of order");
+        }
+        Chunk[] newChunks = chunks;
+        int[] newStarts = starts;
+        int newCount = chunkCount;
+        int newLastSize = lastSize;
+        while (newCount <= c) { // start a new chunk, or several if keys have been skipped
+            if (newCount == newChunks.length) {
+                newChunks = Arrays.copyOf(newChunks, newCount * 2);
+                newStarts = Arrays.copyOf(newStarts, newCount * 2);
+            }
+            newStarts[newCount] = newCount == 0 ? 0 : newStarts[newCount - 1] + newLastSize;
+            newChunks[newCount] = new Chunk(new int[CHUNK_SIZE], new long[CHUNK_SIZE], new long[CHUNK_SIZE]);
+            newCount++;
+            newLastSize = 0;
+        }
+        final Chunk last = newChunks[newCount - 1];
+        final int slot = (int) (key - firstKeyOf(newCount - 1));
+        if (newLastSize > 0 && last.slots[newLastSize - 1] >= slot) {
+            throw new IllegalArgumentException("Key " + key + " is out of order");
+        }
+        // beyond the end of this version, so invisible to it
+        last.slots[newLastSize] = slot;
+        last.refs[newLastSize] = ref;
+        last.ids[newLastSize] = id;
+        return new CorpusIndex(version + 1, store, firstKey, newChunks, newStarts, newCount, newLastSize + 1);
+    }
+
+    /**
+     * @param key The key of the tweet to remove.
+     * @return The new version of the index, or this one if the tweet is not present.
+     */
+    CorpusIndex remove(final long key) {
+        final int c = chunkOf(key);
+        final int p = c < 0 ? -1 : positionIn(c, key);
+        if (p < 0) {
+            return this;
+        }
+        final Chunk chunk = chunks[c];
+        final int size = sizeOf(c);
+        final Chunk compacted = new Chunk(
+            new int[chunk.slots.length], new long[chunk.refs.length], new long[chunk.ids.length]
+        );
+        System.arraycopy(chunk.slots, 0, compacted.slots, 0, p);
+        System.arraycopy(chunk.slots, p + 1, compacted.slots, p, size - p - 1);
+        System.arraycopy(chunk.refs, 0, compacted.refs, 0, p);
+        System.arraycopy(chunk.refs, p + 1, compacted.refs, p, size - p - 1);
+        System.arraycopy(chunk.ids, 0, compacted.ids, 0, p);
+        System.arraycopy(chunk.ids, p + 1, compacted.ids, p, size - p - 1);
+
+        final Chunk[] newChunks = chunks.clone();
+        newChunks[c] = compacted;
+        final int[] newStarts = starts.clone();
+        for (int i = c + 1; i < chunkCount; i++) {
+            newStarts[i]--;
+        }
+        final int newLastSize = c == chunkCount - 1 ? lastSize - 1 : lastSize;
+        return new CorpusIndex(version + 1, store, firstKey, newChunks, newStarts, chunkCount, newLastSize);
+    }
+
+    /**
+     * @param key The key of the tweet to update.
+     * @param ref Where the tweet's new JSON is in the store.
+     * @param id The tweet's new ID, or {@link #NO_ID}.
+     * @return The new version of the index, or this one if the tweet is not present.
+     */
+    CorpusIndex replace(final long key, final long ref, final long id) {
+        final int c = chunkOf(key);
+        final int p = c < 0 ? -1 : positionIn(c, key);
+        if (p < 0) {
+            return this;
+        }
+        final Chunk chunk = chunks[c];
+        final Chunk updated = new Chunk(chunk.slots.clone(), chunk.refs.clone(), chunk.ids.clone());
+        updated.refs[p] = ref;
+        updated.ids[p] = id;
+        final Chunk[] newChunks = chunks.clone();
+        newChunks[c] = updated;
+        return new CorpusIndex(version + 1, store, firstKey, newChunks, starts, chunkCount, lastSize);
+    }
+
+    private long firstKeyOf(final int c) {
+        return firstKey + (long) c * CHUNK_SIZE;
+    }
+
+    private int sizeOf(final int c) {
+        return c == chunkCount - 1 ? lastSize : starts[c + 1] - starts[c];
+    }
+
+    /**
+     * @return The chunk that would hold <code>key</code>, or -1 if there is none.
+     */
+    private int chunkOf(final long key) {
+        if (key < firstKey) {
+            return -1;
+        }
+        final long c = (key - firstKey) / CHUNK_SIZE;
+        return c < chunkCount ? (int) c : -1;
+    }
+
+    /**
+     * @return The position of <code>key</code> in chunk <code>c</code>, or -1 if it isn't there.
+     */
+    private int positionIn(final int c, final long key) {
+        final int p = Arrays.binarySearch(chunks[c].slots, 0, sizeOf(c), (int) (key - firstKeyOf(c)));
+        return p < 0 ? -1 : p;
+    }
+
+    /**
+     * @return The chunk holding the tweet at position <code>i</code>.
+     */
+    private int chunkAt(final int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size());
+        }
+        // the last chunk starting at or before i, which skips any empty chunks
+        int lo = 0;
+        int hi = chunkCount - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= i) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The keys (as offsets from the chunk's first key), store references and
+     * IDs of the tweets in a range of keys, in key order.
+     */
+    private static final class Chunk {
+        final int[] slots;
+        final long[] refs;
+        final long[] ids;
+
+        Chunk(final int[] slots, final long[] refs, final long[] ids) {
+            this.slots = slots;
+            this.refs = refs;
+            this.ids = ids;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * An immutable, versioned view of the tweets in a {@link TweetCorpusModel}.
+ *
+ * Readers may hold on to a snapshot for as long as they like without locking;
+ * changes to the corpus are published as new snapshots with higher versions.
+ * A snapshot holds references to each tweet's raw JSON in the corpus's
+ * {@link TweetStore}, which is parsed (or fetched from the corpus's cache of
+ * parsed tweets) as each tweet is accessed.
+ */
+public final class CorpusSnapshot {
+    static final CorpusSnapshot EMPTY = new CorpusSnapshot(
+        CorpusIndex.empty(0L, new HeapTweetStore(), 0L), (store, key, ref) -> null
+    );
+
+    /** Turns stored JSON into a tweet, e.g. via a cache of parsed tweets. */
+    interface Decoder {
+        ImmutableTweetModel decode(TweetStore store, long key, long ref);
+    }
+
+    private final CorpusIndex index;
+    private final Decoder decoder;
+    private final List<ImmutableTweetModel> tweets = new AbstractList<ImmutableTweetModel>() {
+        @Override
+        public ImmutableTweetModel get(final int i) {
+            return CorpusSnapshot.this.get(i);
+        }
+
+        @Override
+        public int size() {
+            return CorpusSnapshot.this.size();
+        }
+    };
+    private final List<Long> keys = new AbstractList<Long>() {
+        @Override
+        public Long get(final int i) {
+            return getKey(i);
+        }
+
+        @Override
+        public int size() {
+            return CorpusSnapshot.this.size();
+        }
+    };
+
+    CorpusSnapshot(final CorpusIndex index, final Decoder decoder) {
+        this.index = index;
+        this.decoder = decoder;
+    }
+
+    public long getVersion() {
+        return index.getVersion();
+    }
+
+    public List<ImmutableTweetModel> getTweets() {
+        return tweets;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public List<Long> getKeys() {
+        return keys;
+    }
+
+    public long getKey(final int i) {
+        return index.keyAt(i);
+    }
+
+    /**
+     * @param i The index of a tweet.
+     * @return The tweet's raw UTF-8 JSON, which must not be modified.
+     */
+    public byte[] getRawJson(final int i) {
+        return index.getStore().read(index.refAt(i));
+    }
+
+    public ImmutableTweetModel get(final int i) {
+        return decoder.decode(index.getStore(), index.keyAt(i), index.refAt(i));
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Splitter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Streams a file of tweets through a series of stages into a new file, e.g. to
+ * anonymise a corpus before sharing it.
+ *
+ * Stages are applied in the order they are added. Paths are dotted, as for
+ * {@link TweetModel#set(String, Object)}, e.g. <code>user.screen_name</code>, with
+ * <code>[n]</code> for an array element and <code>[*]</code> for every element,
+ * e.g. <code>entities.user_mentions.[*].screen_name</code>.
+ *
+ * One thread reads lines, a pool of workers parses, transforms and serialises
+ * batches of them, and the calling thread writes the results in their original
+ * order. The queues between them are bounded, so memory use does not depend on
+ * the size of the input, apart from the table of pseudonyms. The workers take
+ * turns to apply the stages, one batch at a time in input order, so pseudonyms
+ * are handed out in order of first appearance, and the output is the same
+ * however many threads are used.
+ */
+public class CorpusTransformer {
+    private static final int BATCH_SIZE = 256;
+    private static final int BATCHES_PER_WORKER = 4;
+    private static final String PSEUDONYM_PREFIX = "anon_";
+
+    private final List<Function<ObjectNode, ObjectNode>> stages = new ArrayList<>();
+    private final Map<String, String> pseudonyms = new ConcurrentHashMap<>();
+    private final AtomicLong nextPseudonym = new AtomicLong(1);
+
+    /**
+     * Removes the value at a path, wherever it is present.
+     */
+    public CorpusTransformer drop(final String path) {
+        final List<String> segments = parsePath(path);
+        stages.add(tweet -> {
+            visit(tweet, segments, 0, (container, last) -> {
+                if (container.isObject()) {
+                    ((ObjectNode) container).remove(last);
+                } else if (container.isArray() && "[*]".equals(last)) {
+                    ((ArrayNode) container).removeAll();
+                } else if (container.isArray()) {
+                    ((ArrayNode) container).remove(indexOf(last));
+                }
+            });
+            return tweet;
+        });
+        return this;
+    }
+
+    /**
+     * Sets the value at a path, wherever its parent is present.
+     *
+     * @param value The new value, which is copied into each tweet.
+     */
+    public CorpusTransformer set(final String path, final JsonNode value) {
+        final List<String> segments = parsePath(path);
+        stages.add(tweet -> {
+            visit(tweet, segments, 0, (container, last) -> {
+                if (container.isObject()) {
+                    ((ObjectNode) container).set(last, value.deepCopy());
+                } else if (container.isArray() && "[*]".equals(last)) {
+                    final ArrayNode array = (ArrayNode) container;
+                    for (int i = 0; i < array.size(); i++) {
+                        array.set(i, value.deepCopy());
+                    }
+                } else if (container.isArray() && indexOf(last) < container.size()) {
+                    ((ArrayNode) container).set(indexOf(last), value.deepCopy());
+                }
+            });
+            return tweet;
+        });
+        return this;
+    }
+
+    /**
+     * Replaces the value at a path with a pseudonym. Pseudonyms are consistent
+     * across all pseudonymised paths, so an account's <code>user.screen_name</code>
+     * and its mentions in <code>entities.user_mentions.[*].screen_name</code> get the
+     * same one, and numeric values (e.g. <code>user.id</code> and <code>user.id_str</code>)
+     * get numeric pseudonyms.
+     */
+    public CorpusTransformer pseudonymise(final String path) {
+        final List<String> segments = parsePath(path);
+        stages.add(tweet -> {
+            visit(tweet, segments, 0, (container, last) -> {
+                if (container.isObject()) {
+                    final JsonNode value = container.get(last);
+                    if (value != null && value.isValueNode() && ! value.isNull()) {
+                        ((ObjectNode) container).set(last, pseudonymOf(value));
+                    }
+                } else if (container.isArray()) {
+                    final ArrayNode array = (ArrayNode) container;
+                    final int from = "[*]".equals(last) ? 0 : indexOf(last);
+                    final int to = "[*]".equals(last) ? array.size() : Math.min(from + 1, array.size());
+                    for (int i = from; i < to; i++) {
+                        if (array.get(i).isValueNode() && ! array.get(i).isNull()) {
+                            array.set(i, pseudonymOf(array.get(i)));
+                        }
+                    }
+                }
+            });
+            return tweet;
+        });
+        return this;
+    }
+
+    /**
+     * Keeps only tweets with a value at a path, ignoring <code>null</code>s.
+     *
+     * @param value The text the value must have, or <code>null</code> for any value.
+     */
+    public CorpusTransformer keepIf(final String path, final String value) {
+        final List<String> segments = parsePath(path);
+        stages.add(tweet -> {
+            final boolean[] found = {false};
+            visit(tweet, segments, 0, (container, last) -> {
+                final List<JsonNode> candidates = new ArrayList<>();
+                if ("[*]".equals(last)) {
+                    container.forEach(candidates::add);
+                } else {
+                    final JsonNode candidate = container.isArray() ? container.get(indexOf(last)) : container.get(last);
+                    if (candidate != null) candidates.add(candidate);
+                }
+                for (final JsonNode candidate : candidates) {
+                    if (! candidate.isNull() && (value == null || value.equals(candidate.asText()))) {
+                        found[0] = true;
+                    }
+                }
+            });
+            return found[0] ? tweet : null;
+        });
+        return this;
+    }
+
+    /**
+     * Transforms every tweet in a file, writing the survivors to another.
+     *
+     * @param input A file of tweets, one JSON object per line.
+     * @param output Where to write the transformed tweets, which is overwritten.
+     * @param threads How many threads to parse and transform tweets with.
+     * @return Counts of what was done.
+     * @throws IOException If the input cannot be read, the output cannot be written,
+     *                     or the transformation is interrupted.
+     */
+    public Result transform(final Path input, final Path output, final int threads) throws IOException {
+        if (Files.exists(output) && Files.isSameFile(input, output)) {
+            throw new IOException("Refusing to overwrite the input file " + input);
+        }
+        final int workers = Math.max(1, threads);
+        final BlockingQueue<Batch> toTransform = new ArrayBlockingQueue<>(workers * BATCHES_PER_WORKER);
+        final BlockingQueue<Batch> toWrite = new ArrayBlockingQueue<>(workers * BATCHES_PER_WORKER);
+        final Semaphore inFlight = new Semaphore(workers * BATCHES_PER_WORKER * 2); // bounds the reordering too
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicLong batchesRead = new AtomicLong(-1); // known once reading finishes
+        final Turns turns = new Turns();
+        final Result result = new Result();
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers + 1, r -> {
+            final Thread t = new Thread(r, "corpus-transformer-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            executor.execute(() -> {
+                try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                    long seq = 0;
+                    List<String> lines = new ArrayList<>(BATCH_SIZE);
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.trim().isEmpty()) {
+                            continue;
+                        }
+                        lines.add(line);
+                        if (lines.size() == BATCH_SIZE) {
+                            inFlight.acquire();
+                            toTransform.put(new Batch(seq++, lines));
+                            lines = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                    if (! lines.isEmpty()) {
+                        inFlight.acquire();
+                        toTransform.put(new Batch(seq++, lines));
+                    }
+                    batchesRead.set(seq);
+                    for (int i = 0; i < workers; i++) {
+                        toTransform.put(Batch.END);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            for (int i = 0; i < workers; i++) {
+                executor.execute(() -> {
+                    try {
+                        for (Batch batch = toTransform.take(); batch != Batch.END; batch = toTransform.take()) {
+                            toWrite.put(transformBatch(batch, turns, result));
+                        }
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            writeInOrder(output, toWrite, inFlight, batchesRead, failure, result);
+        } finally {
+            executor.shutdownNow();
+        }
+        result.pseudonyms = pseudonyms.size();
+        return result;
+    }
+
+    private void writeInOrder(
+        final Path output,
+        final BlockingQueue<Batch> toWrite,
+        final Semaphore inFlight,
+        final AtomicLong batchesRead,
+        final AtomicReference<Throwable> failure,
+        final Result result
+    ) throws IOException {
+        final Map<Long, Batch> pending = new HashMap<>();
+        long next = 0;
+        try (OutputStream out = Files.newOutputStream(output)) {
+            while (next != batchesRead.get()) {
+                if (failure.get() != null) {
+                    final Throwable t = failure.get();
+                    throw t instanceof IOException ? (IOException) t : new IOException(t.getMessage(), t);
+                }
+                final Batch batch = toWrite.poll(100, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    pending.put(batch.seq, batch);
+                }
+                for (Batch b = pending.remove(next); b != null; b = pending.remove(next)) {
+                    for (final byte[] json : b.results) {
+                        out.write(json);
+                        out.write('\n');
+                        result.written++;
+                    }
+                    next++;
+                    inFlight.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while transforming " + output, e);
+        }
+    }
+
+    private Batch transformBatch(final Batch batch, final Turns turns, final Result result)
+        throws InterruptedException {
+        final List<ObjectNode> tweets = new ArrayList<>(batch.lines.size());
+        for (final String line : batch.lines) {
+            result.read.increment();
+            final JsonNode parsed;
+            try {
+                parsed = Json.readTree(line);
+            } catch (IOException e) {
+                result.malformed.increment();
+                continue;
+            }
+            if (parsed == null || ! parsed.isObject()) {
+                result.malformed.increment();
+                continue;
+            }
+            tweets.add((ObjectNode) parsed);
+        }
+
+        // parsing and serialising are the bulk of the work, and stay parallel
+        turns.await(batch.seq);
+        try {
+            for (int i = 0; i < tweets.size(); i++) {
+                ObjectNode tweet = tweets.get(i);
+                for (final Function<ObjectNode, ObjectNode> stage : stages) {
+                    tweet = stage.apply(tweet);
+                    if (tweet == null) {
+                        break;
+                    }
+                }
+                tweets.set(i, tweet);
+            }
+        } finally {
+            turns.pass();
+        }
+
+        final List<byte[]> out = new ArrayList<>(tweets.size());
+        for (final ObjectNode tweet : tweets) {
+            if (tweet == null) {
+                result.filtered.increment();
+                continue;
+            }
+            try {
+                out.add(Json.WRITER.writeValueAsBytes(tweet));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new Batch(batch.seq, null, out);
+    }
+
+    private JsonNode pseudonymOf(final JsonNode value) {
+        final String original = value.asText();
+        final String pseudonym = pseudonyms.computeIfAbsent(original, o -> {
+            final long n = nextPseudonym.getAndIncrement();
+            return isDigits(o) ? Long.toString(n) : PSEUDONYM_PREFIX + n;
+        });
+        if (value.isNumber() && isDigits(pseudonym)) {
+            return JsonNodeFactory.instance.numberNode(Long.parseLong(pseudonym));
+        }
+        return JsonNodeFactory.instance.textNode(pseudonym);
+    }
+
+    private static boolean isDigits(final String s) {
+        return ! s.isEmpty() && s.chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * Finds each container holding the last segment of a path and hands it,
+     * and that segment, to <code>action</code>.
+     */
+    private static void visit(
+        final JsonNode node,
+        final List<String> segments,
+        final int i,
+        final BiConsumer<JsonNode, String> action
+    ) {
+        final String segment = segments.get(i);
+        if (i == segments.size() - 1) {
+            if (node.isObject() || (node.isArray() && segment.startsWith("["))) {
+                action.accept(node, segment);
+            }
+            return;
+        }
+        if ("[*]".equals(segment)) {
+            if (node.isArray()) {
+                node.forEach(element -> visit(element, segments, i + 1, action));
+            }
+            return;
+        }
+        final JsonNode child = segment.startsWith("[") ? node.get(indexOf(segment)) : node.get(segment);
+        if (child != null && ! child.isNull()) {
+            visit(child, segments, i + 1, action);
+        }
+    }
+
+    private static List<String> parsePath(final String path) {
+        final List<String> segments = Splitter.on('.').trimResults().splitToList(path);
+        for (final String segment : segments) {
+            if (segment.isEmpty()
+                || (segment.startsWith("[") && ! "[*]".equals(segment) && ! segment.matches("\\[\\d+]"))) {
+                throw new IllegalArgumentException("Not a valid path: " + path);
+            }
+        }
+        return segments;
+    }
+
+    private static int indexOf(final String segment) {
+        return Integer.parseInt(segment.substring(1, segment.length() - 1));
+    }
+
+    /**
+     * Counts of what a transformation did.
+     */
+    public static final class Result {
+        private final LongAdder read = new LongAdder();
+        private final LongAdder malformed = new LongAdder();
+        private final LongAdder filtered = new LongAdder();
+        private long written;
+        private int pseudonyms;
+
+        public long getRead() {
+            return read.sum();
+        }
+
+        public long getMalformed() {
+            return malformed.sum();
+        }
+
+        public long getFiltered() {
+            return filtered.sum();
+        }
+
+        public long getWritten() {
+            return written;
+        }
+
+        /** @return How many distinct values were given pseudonyms. */
+        public int getPseudonyms() {
+            return pseudonyms;
+        }
+
+        @Override
+        public String toString() {
+            return "Read " + getRead() + " tweets, wrote " + written + " (" + getFiltered() + " filtered out, "
+                + getMalformed() + " malformed, " + pseudonyms + " pseudonyms)";
+        }
+    }
+
+    /**
+     * Lets workers take turns in the order of their batches' sequence numbers.
+     */
+    private static final class Turns {
+        private long next = 0;
+
+        synchronized void await(final long seq) throws InterruptedException {
+            while (next != seq) {
+                wait();
+            }
+        }
+
+        synchronized void pass() {
+            next++;
+            notifyAll();
+        }
+    }
+
+    private static final class Batch {
+        static final Batch END = new Batch(-1, null, null);
+
+        final long seq;
+        final List<String> lines;
+        final List<byte[]> results;
+
+        Batch(final long seq, final List<String> lines) {
+            this(seq, lines, null);
+        }
+
+        Batch(final long seq, final List<String> lines, final List<byte[]> results) {
+            this.seq = seq;
+            this.lines = lines;
+            this.results = results;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import java.util.Arrays;
+
+/**
+ * Keeps each tweet's JSON in its own byte array on the Java heap.
+ *
+ * References are numbered from 0, so the arrays are kept in pages of
+ * {@link #PAGE_SIZE} references rather than in a map, which would box every
+ * reference and give the garbage collector an entry per tweet to trace.
+ * Readers never lock: a page's slots are only ever filled once, and pages are
+ * only ever added, by replacing the (volatile) array of pages.
+ */
+public class HeapTweetStore implements TweetStore {
+    static final int PAGE_SIZE = 1 << 14;
+
+    private volatile byte[][][] pages = new byte[0][][];
+    private volatile long tweetCount;
+    private volatile long bytesStored;
+
+    @Override
+    public synchronized long append(final byte[] json) {
+        final long ref = tweetCount;
+        final int page = (int) (ref / PAGE_SIZE);
+        if (page == pages.length) {
+            final byte[][][] grown = Arrays.copyOf(pages, Math.max(16, page * 2));
+            grown[page] = new byte[PAGE_SIZE][];
+            pages = grown;
+        } else if (pages[page] == null) {
+            pages[page] = new byte[PAGE_SIZE][]; // published with the reference
+        }
+        pages[page][(int) (ref % PAGE_SIZE)] = json;
+        tweetCount++;
+        bytesStored += json.length;
+        return ref;
+    }
+
+    @Override
+    public byte[] read(final long ref) {
+        return pages[(int) (ref / PAGE_SIZE)][(int) (ref % PAGE_SIZE)]; // shared, so callers must not modify it
+    }
+
+    @Override
+    public TweetStore emptyCopy() {
+        return new HeapTweetStore();
+    }
+
+    @Override
+    public long getTweetsStored() {
+        return tweetCount;
+    }
+
+    @Override
+    public long getBytesStored() {
+        return bytesStored;
+    }
+
+    @Override
+    public long getBytesReserved() {
+        return bytesStored;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return false;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The keys of a corpus's tweets by their Twitter IDs.
+ *
+ * Twitter's IDs are numbers, so they are held in an open-addressing hash table
+ * of primitive <code>long</code>s, rather than as a boxed entry per tweet for
+ * the garbage collector to trace. IDs that aren't numbers are kept in an
+ * ordinary map on the side.
+ *
+ * A corpus may hold several tweets with the same ID (e.g. the same tweet
+ * added twice), so every key is kept, and a look-up gives the newest tweet
+ * still present; removing one copy leaves the others to be found.
+ *
+ * There must only be one writer at a time, but readers never block. Removed
+ * entries leave a marker that is only cleared when the table is rebuilt, so a
+ * reader that finds an ID can trust the key it reads alongside.
+ */
+final class IdIndex {
+    static final long NO_ID = 0L;
+    static final long NO_KEY = -1L;
+
+    private static final long EMPTY = NO_ID; // numeric IDs are all positive
+    private static final long REMOVED = -1L;
+    private static final int MIN_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private final ConcurrentHashMap<String, long[]> others = new ConcurrentHashMap<>(); // keys in order; replaced, never changed
+    private int used; // slots that aren't empty, including removed ones; only touched by the writer
+    private int live;
+
+    /**
+     * @param idStr A tweet's <code>id_str</code>.
+     * @return The ID as a number, or {@link #NO_ID} if it isn't written as a
+     *         positive <code>long</code> in the usual way.
+     */
+    static long parse(final String idStr) {
+        if (idStr.isEmpty() || idStr.length() > 19 || idStr.charAt(0) == '0') {
+            return NO_ID;
+        }
+        for (int i = 0; i < idStr.length(); i++) {
+            if (idStr.charAt(i) < '0' || idStr.charAt(i) > '9') {
+                return NO_ID;
+            }
+        }
+        try {
+            return Long.parseLong(idStr);
+        } catch (NumberFormatException e) {
+            return NO_ID; // too big
+        }
+    }
+
+    /**
+     * @param idStr A tweet's <code>id_str</code>.
+     * @return The key of the newest tweet with that ID, or {@link #NO_KEY}.
+     */
+    long get(final String idStr) {
+        final long id = parse(idStr);
+        if (id == NO_ID) {
+            final long[] keys = others.get(idStr);
+            return keys == null ? NO_KEY : keys[keys.length - 1];
+        }
+        final Table t = table;
+        long newest = NO_KEY;
+        for (int i = slotOf(id, t.mask); ; i = (i + 1) & t.mask) {
+            final long found = t.ids.get(i);
+            if (found == EMPTY) {
+                return newest;
+            }
+            if (found == id) {
+                final long key = t.keys.get(i);
+                if (t.ids.get(i) == id) { // unless removed meanwhile
+                    newest = Math.max(newest, key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the key of a tweet with an ID, alongside any other tweets'.
+     *
+     * @param id The ID as a number, or {@link #NO_ID} if it isn't one.
+     * @param idStr The ID as written, only needed if it isn't a number.
+     * @param key The tweet's key.
+     */
+    void put(final long id, final String idStr, final long key) {
+        if (id == NO_ID) {
+            if (! idStr.isEmpty()) {
+                others.compute(idStr, (s, keys) -> {
+                    if (keys == null) {
+                        return new long[] {key};
+                    }
+                    final int at = Arrays.binarySearch(keys, key);
+                    if (at >= 0) {
+                        return keys;
+                    }
+                    final long[] more = new long[keys.length + 1];
+                    System.arraycopy(keys, 0, more, 0, -at - 1);
+                    more[-at - 1] = key;
+                    System.arraycopy(keys, -at - 1, more, -at, keys.length + at + 1);
+                    return more;
+                });
+            }
+            return;
+        }
+        final Table t = table;
+        int i = slotOf(id, t.mask);
+        for (long found; (found = t.ids.get(i)) != EMPTY; i = (i + 1) & t.mask) {
+            if (found == id && t.keys.get(i) == key) {
+                return; // already recorded
+            }
+        }
+        t.keys.set(i, key); // before the ID, so readers never see the ID without it
+        t.ids.set(i, id);
+        live++;
+        if (++used > t.capacity() * MAX_LOAD) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Forgets the tweet with the given key, leaving any others with its ID.
+     *
+     * @param id The ID as a number, or {@link #NO_ID} if it isn't one.
+     * @param idStr The ID as written, only needed if it isn't a number.
+     * @param key The tweet's key.
+     */
+    void remove(final long id, final String idStr, final long key) {
+        if (id == NO_ID) {
+            others.computeIfPresent(idStr, (s, keys) -> {
+                final int at = Arrays.binarySearch(keys, key);
+                if (at < 0) {
+                    return keys;
+                }
+                if (keys.length == 1) {
+                    return null;
+                }
+                final long[] fewer = new long[keys.length - 1];
+                System.arraycopy(keys, 0, fewer, 0, at);
+                System.arraycopy(keys, at + 1, fewer, at, fewer.length - at);
+                return fewer;
+            });
+            return;
+        }
+        final Table t = table;
+        for (int i = slotOf(id, t.mask); ; i = (i + 1) & t.mask) {
+            final long found = t.ids.get(i);
+            if (found == EMPTY) {
+                return;
+            }
+            if (found == id && t.keys.get(i) == key) {
+                t.ids.set(i, REMOVED);
+                live--;
+                return;
+            }
+        }
+    }
+
+    void clear() {
+        table = new Table(MIN_CAPACITY);
+        others.clear();
+        used = 0;
+        live = 0;
+    }
+
+    /**
+     * Copies the live entries to a new table, sized for the number of them,
+     * leaving the old table to any readers still using it.
+     */
+    private void rebuild() {
+        final Table old = table;
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < live * 2L) {
+            capacity *= 2;
+        }
+        final Table fresh = new Table(capacity);
+        for (int i = 0; i < old.capacity(); i++) {
+            final long id = old.ids.get(i);
+            if (id != EMPTY && id != REMOVED) {
+                int j = slotOf(id, fresh.mask);
+                while (fresh.ids.get(j) != EMPTY) {
+                    j = (j + 1) & fresh.mask;
+                }
+                fresh.keys.set(j, old.keys.get(i));
+                fresh.ids.set(j, id);
+            }
+        }
+        used = live;
+        table = fresh;
+    }
+
+    private static int slotOf(final long id, final int mask) {
+        // mix the bits, as consecutive IDs would otherwise cluster
+        long h = id * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) h & mask;
+    }
+
+    private static final class Table {
+        final AtomicLongArray ids;
+        final AtomicLongArray keys;
+        final int mask;
+
+        Table(final int capacity) {
+            this.ids = new AtomicLongArray(capacity);
+            this.keys = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A read-only view of a tweet which can be shared freely between threads.
+ *
+ * Updates via {@link #with(String, Object)} never touch the existing tree: only
+ * the nodes along the updated path are copied, and every other sub-tree is
+ * shared with the original. A tweet's tree is also shared by the corpus's cache
+ * and every snapshot that holds it, so it must never be mutated by anyone.
+ * Jackson's nodes can't enforce that, so the accessors that expose them,
+ * {@link #getRoot()} and {@link #get(String)}, are kept within this package,
+ * and their results must only be read or serialised. Outside it, use
+ * {@link #has(String)}, {@link #with(String, Object)}, or
+ * {@link #toTweetModel()} for a private, mutable copy.
+ */
+public final class ImmutableTweetModel {
+    private final JsonNode root;
+    private final TweetModel reader;
+
+    private ImmutableTweetModel(final JsonNode root) {
+        this.root = root;
+        this.reader = new TweetModel(root);
+    }
+
+    /**
+     * Wraps a tree the caller promises not to mutate again.
+     *
+     * @param root The tweet's JSON tree, which must no longer be shared with mutable code.
+     * @return An immutable view of the tree.
+     */
+    public static ImmutableTweetModel wrap(final JsonNode root) {
+        return new ImmutableTweetModel(root);
+    }
+
+    /**
+     * Takes a defensive deep copy of a tree that may still be mutated elsewhere.
+     *
+     * @param root The tweet's JSON tree.
+     * @return An immutable view of a copy of the tree.
+     */
+    public static ImmutableTweetModel copyOf(final JsonNode root) {
+        return new ImmutableTweetModel(root.deepCopy());
+    }
+
+    /**
+     * @return The tweet's tree, which is shared, so must not be modified.
+     */
+    JsonNode getRoot() {
+        return root;
+    }
+
+    /**
+     * @param path The dotted path to a value, as for {@link TweetModel#get(String)}.
+     * @return The value, which is shared, so must not be modified.
+     */
+    JsonNode get(final String path) {
+        return reader.get(path);
+    }
+
+    public boolean has(final String path) {
+        return reader.has(path);
+    }
+
+    /**
+     * Creates a new tweet with the value at <code>path</code> replaced, using
+     * the same path syntax and value types as {@link TweetModel#set(String, Object)}.
+     *
+     * @param path The dotted path to the value to set.
+     * @param value The new value.
+     * @return A new tweet sharing all untouched sub-trees with this one.
+     */
+    public ImmutableTweetModel with(final String path, final Object value) {
+        final JsonNode newRoot = copyPath(root, path);
+        new TweetModel(newRoot).set(path, value);
+        return new ImmutableTweetModel(newRoot);
+    }
+
+    /**
+     * @return A deep, mutable copy of this tweet.
+     */
+    public TweetModel toTweetModel() {
+        return new TweetModel(root.deepCopy());
+    }
+
+    /**
+     * Shallow copies <code>node</code> and, recursively, each container along
+     * <code>path</code> that {@link TweetModel#set(String, Object)} will write into.
+     */
+    private static JsonNode copyPath(final JsonNode node, final String path) {
+        final JsonNode copy = shallowCopy(node);
+        final int dot = path.indexOf('.');
+        if (dot < 0) {
+            if (path.startsWith("[")) { // set() writes into the indexed element
+                final int index = Integer.parseInt(path.substring(1, path.length() - 1));
+                if (copy.has(index)) {
+                    ((ArrayNode) copy).set(index, shallowCopy(copy.get(index)));
+                }
+            }
+            return copy;
+        }
+        final String head = path.substring(0, dot);
+        final String tail = path.substring(dot + 1);
+        if (head.startsWith("[")) {
+            final int index = Integer.parseInt(head.substring(1, head.length() - 1));
+            if (copy.has(index)) {
+                ((ArrayNode) copy).set(index, copyPath(copy.get(index), tail));
+            }
+        } else if (copy.has(head)) {
+            ((ObjectNode) copy).set(head, copyPath(copy.get(head), tail));
+        }
+        return copy;
+    }
+
+    private static JsonNode shallowCopy(final JsonNode node) {
+        if (node.isObject()) {
+            final ObjectNode copy = JsonNodeFactory.instance.objectNode();
+            copy.setAll((ObjectNode) node);
+            return copy;
+        } else if (node.isArray()) {
+            final ArrayNode copy = JsonNodeFactory.instance.arrayNode();
+            copy.addAll((ArrayNode) node);
+            return copy;
+        }
+        return node; // value nodes are immutable already
+    }
+}
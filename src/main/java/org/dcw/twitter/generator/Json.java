@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+
+/**
+ * The JSON machinery shared by the whole app.
+ *
+ * An <code>ObjectMapper</code> is slow to create and to warm up, so the app
+ * has just one, created the first time any JSON is handled, and works through
+ * readers and writers made from it, which are immutable and safe to share
+ * between threads.
+ */
+final class Json {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /** For streaming parsers and generators. */
+    static final JsonFactory FACTORY = MAPPER.getFactory();
+    static final ObjectReader READER = MAPPER.reader();
+    static final ObjectWriter WRITER = MAPPER.writer();
+    static final ObjectWriter PRETTY_WRITER = MAPPER.writerWithDefaultPrettyPrinter();
+
+    private Json() {}
+
+    /**
+     * @param json Some JSON.
+     * @return Its tree, or <code>null</code> if there is no JSON in it.
+     * @throws IOException If the JSON is malformed.
+     */
+    static JsonNode readTree(final byte[] json) throws IOException {
+        try (JsonParser p = FACTORY.createParser(json)) {
+            return READER.readTree(p);
+        }
+    }
+
+    /**
+     * @param json Some JSON.
+     * @return Its tree, or <code>null</code> if there is no JSON in it.
+     * @throws IOException If the JSON is malformed.
+     */
+    static JsonNode readTree(final String json) throws IOException {
+        try (JsonParser p = FACTORY.createParser(json)) {
+            return READER.readTree(p);
+        }
+    }
+}
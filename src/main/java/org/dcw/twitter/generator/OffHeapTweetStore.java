@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keeps tweets' JSON outside the Java heap, packed into large direct
+ * {@link ByteBuffer} slabs, so that a corpus bigger than the heap can be held
+ * without the garbage collector having to trace or copy it.
+ *
+ * Each tweet is written as a 4-byte length followed by its JSON, and its
+ * reference packs the slab's index into the upper 32 bits and the offset
+ * within the slab into the lower 32 bits. Readers never lock: stored bytes
+ * never change, and slabs are only ever added, by replacing the (volatile)
+ * array of slabs. The JVM's direct memory limit may need raising with
+ * <code>-XX:MaxDirectMemorySize</code> for very large corpora.
+ */
+public class OffHeapTweetStore implements TweetStore {
+    public static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+
+    private final int slabSize;
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private ByteBuffer current; // the slab being appended to; only used by the (serialised) writers
+    private volatile long tweetCount;
+    private volatile long bytesStored;
+    private volatile long bytesReserved;
+
+    public OffHeapTweetStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    public OffHeapTweetStore(final int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    @Override
+    public synchronized long append(final byte[] json) {
+        final int needed = Integer.BYTES + json.length;
+        if (current == null || current.remaining() < needed) {
+            // tweets bigger than a slab get a slab of their own
+            current = ByteBuffer.allocateDirect(Math.max(slabSize, needed));
+            final ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+            grown[grown.length - 1] = current;
+            slabs = grown;
+            bytesReserved += current.capacity();
+        }
+        final long ref = ((long) (slabs.length - 1) << 32) | current.position();
+        current.putInt(json.length);
+        current.put(json);
+        tweetCount++;
+        bytesStored += json.length;
+        return ref;
+    }
+
+    @Override
+    public byte[] read(final long ref) {
+        final ByteBuffer slab = slabs[(int) (ref >>> 32)].duplicate(); // independent position
+        slab.position((int) ref);
+        final byte[] json = new byte[slab.getInt()];
+        slab.get(json);
+        return json;
+    }
+
+    @Override
+    public TweetStore emptyCopy() {
+        return new OffHeapTweetStore(slabSize);
+    }
+
+    @Override
+    public long getTweetsStored() {
+        return tweetCount;
+    }
+
+    @Override
+    public long getBytesStored() {
+        return bytesStored;
+    }
+
+    @Override
+    public long getBytesReserved() {
+        return bytesReserved;
+    }
+
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+}
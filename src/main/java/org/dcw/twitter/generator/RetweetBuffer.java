@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-builds retweets by the current retweeter in the background, so that
+ * asking for one is usually just a cache hit.
+ *
+ * Each pre-built retweet is handed out at most once, as every retweet needs
+ * its own ID, and is replaced in the background afterwards. Entries expire
+ * after a short while so that their <code>created_at</code> stays plausible,
+ * and are all discarded when the retweeter changes.
+ */
+public class RetweetBuffer {
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int MAX_PENDING_REQUESTS = 16;
+
+    private final TweetCorpusModel model;
+    private final int capacity;
+    private final Cache<Long, Prebuilt> cache;
+    private final ThreadPoolExecutor producer;
+    private volatile String retweeter = "";
+
+    public RetweetBuffer(final TweetCorpusModel model) {
+        this(model, DEFAULT_CAPACITY);
+    }
+
+    public RetweetBuffer(final TweetCorpusModel model, final int capacity) {
+        this.model = model;
+        this.capacity = capacity;
+        this.cache = CacheBuilder.newBuilder()
+            .maximumSize(capacity)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+        // one background thread; when it falls behind, the oldest requests are
+        // stale (e.g. rows scrolled out of view), so drop those first
+        this.producer = new ThreadPoolExecutor(
+            1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_REQUESTS),
+            r -> {
+                final Thread t = new Thread(r, "retweet-buffer");
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.DiscardOldestPolicy()
+        );
+    }
+
+    /**
+     * Changes whose retweets are buffered, discarding any built for someone else.
+     *
+     * @param newRetweeter The retweeter's screen name.
+     */
+    public void setRetweeter(final String newRetweeter) {
+        final String name = newRetweeter == null ? "" : newRetweeter.trim();
+        if (! name.equals(retweeter)) {
+            retweeter = name;
+            cache.invalidateAll();
+        }
+    }
+
+    /**
+     * Asks for retweets of the given tweets to be built in the background.
+     *
+     * @param keys The keys of the tweets likely to be retweeted next.
+     */
+    public void prefetch(final Collection<Long> keys) {
+        final String name = retweeter;
+        if (name.isEmpty() || keys.isEmpty()) {
+            return;
+        }
+        final ImmutableList<Long> wanted = ImmutableList.copyOf(keys).subList(0, Math.min(keys.size(), capacity));
+        producer.execute(() -> {
+            for (final Long key : wanted) {
+                if (! name.equals(retweeter)) {
+                    return; // retweeter has changed, so this work is wasted
+                }
+                if (cache.getIfPresent(key) == null) {
+                    build(name, key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a pre-built retweet of the given tweet by <code>retweeter</code>, or
+     * builds one on the spot if none is available, and schedules its replacement.
+     *
+     * @param retweeter The retweeter's screen name.
+     * @param key The key of the tweet to retweet.
+     * @return The retweet's JSON, or <code>null</code> if the tweet is no longer in the corpus.
+     * @throws JsonProcessingException If the retweet cannot be serialised.
+     */
+    public String take(final String retweeter, final long key) throws JsonProcessingException {
+        final Prebuilt prebuilt = cache.asMap().remove(key);
+        if (prebuilt != null && prebuilt.retweeter.equals(retweeter)) {
+            prefetch(ImmutableList.of(key));
+            return prebuilt.json;
+        }
+        final ImmutableTweetModel tweet = model.getByKey(key);
+        if (tweet == null) {
+            return null;
+        }
+        final String json = RetweetFactory.makeRetweet(retweeter, tweet);
+        prefetch(ImmutableList.of(key));
+        return json;
+    }
+
+    private void build(final String name, final long key) {
+        final ImmutableTweetModel tweet = model.getByKey(key);
+        if (tweet == null) {
+            return;
+        }
+        try {
+            final Prebuilt prebuilt = new Prebuilt(name, RetweetFactory.makeRetweet(name, tweet));
+            if (Objects.equals(name, retweeter)) {
+                cache.put(key, prebuilt);
+            }
+        } catch (JsonProcessingException e) {
+            System.err.println("Failed to pre-build retweet of tweet " + key + ": " + e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        producer.shutdownNow();
+    }
+
+    private static final class Prebuilt {
+        final String retweeter;
+        final String json;
+
+        Prebuilt(final String retweeter, final String json) {
+            this.retweeter = retweeter;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Builds impoverished retweets of tweets. Safe to use from any thread.
+ */
+public final class RetweetFactory {
+
+    private static final DateTimeFormatter TWITTER_TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss Z yyyy", Locale.ENGLISH);
+    private static final int TWITTER_OLD_MAX_LENGTH = 140;
+    private static final int ID_LENGTH = 16;
+    public static final String ELLIPSIS = "\u2026";
+
+    private RetweetFactory() {}
+
+    /**
+     * Creates the JSON for a retweet of <code>originalTweet</code> by <code>retweeter</code>.
+     *
+     * @param retweeter The screen name of the retweeting account.
+     * @param originalTweet The tweet to retweet, which may itself be a retweet.
+     * @return The retweet's JSON.
+     * @throws JsonProcessingException If the retweet cannot be serialised.
+     */
+    public static String makeRetweet(
+        final String retweeter,
+        final ImmutableTweetModel originalTweet
+    ) throws JsonProcessingException {
+
+        final TweetModel retweet = new TweetModel(JsonNodeFactory.instance.objectNode());
+
+        final String newID = generateID();
+        retweet.set("id_str", newID);
+        retweet.set("id", BigDecimal.valueOf(Long.parseLong(newID)));
+
+        retweet.set("user", JsonNodeFactory.instance.objectNode());
+        retweet.set("user.screen_name", retweeter);
+
+        retweet.set("created_at", now());
+
+        // it occurred to me that the original tweet might itself be a retweet
+        final ImmutableTweetModel tweetToRetweet = ! originalTweet.get("retweeted_status").isNull()
+            ? ImmutableTweetModel.wrap(originalTweet.get("retweeted_status"))
+            : originalTweet;
+
+        // safe to share without copying, as the corpus never mutates its tweets
+        retweet.set("retweeted_status", tweetToRetweet.getRoot());
+
+        final String originalAuthor = tweetToRetweet.get("user.screen_name").asText("<unset>");
+        final String originalText = ! tweetToRetweet.get("truncated").asBoolean(false)
+            ? tweetToRetweet.get("text").asText("")
+            : tweetToRetweet.get("full_text").asText("");
+
+        final String rtText = "RT @" + originalAuthor + ": " + originalText;
+        retweet.set("full_text", rtText);
+        final boolean truncate = rtText.length() > TWITTER_OLD_MAX_LENGTH;
+        retweet.set("truncated", truncate);
+        retweet.set(
+            "text",
+            truncate ? rtText.substring(0, TWITTER_OLD_MAX_LENGTH - 1) + ELLIPSIS : rtText
+        );
+
+        return Json.WRITER.writeValueAsString(retweet.getRoot());
+    }
+
+    /**
+     * Creates retweets of every tweet by every retweeter, in parallel.
+     *
+     * @param tweets The tweets to retweet.
+     * @param retweeters The screen names of the retweeting accounts.
+     * @return The retweets' JSON, one per line, ordered by tweet and then retweeter.
+     * @throws JsonProcessingException If a retweet cannot be serialised.
+     */
+    public static String makeRetweets(
+        final List<ImmutableTweetModel> tweets,
+        final List<String> retweeters
+    ) throws JsonProcessingException {
+        final int n = retweeters.size();
+        try {
+            return IntStream.range(0, tweets.size() * n)
+                .parallel()
+                .mapToObj(i -> {
+                    try {
+                        return makeRetweet(retweeters.get(i % n), tweets.get(i / n)) + "\n";
+                    } catch (JsonProcessingException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .collect(Collectors.joining());
+        } catch (UncheckedIOException e) {
+            throw (JsonProcessingException) e.getCause();
+        }
+    }
+
+    private static String now() {
+        return TWITTER_TIMESTAMP_FORMAT.format(ZonedDateTime.now());
+    }
+
+    /**
+     * Creates a plausible tweet ID.
+     *
+     * @return A plausible tweet ID.
+     */
+    private static String generateID() {
+        final StringBuilder idStr = new StringBuilder(Long.toString(System.currentTimeMillis()));
+        while (idStr.length() < ID_LENGTH) {
+            idStr.append(ThreadLocalRandom.current().nextInt(10)); // 0-9
+        }
+        return idStr.toString();
+    }
+}
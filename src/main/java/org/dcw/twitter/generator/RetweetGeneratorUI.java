@@ -16,9 +16,8 @@
 package org.dcw.twitter.generator;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 
+import javax.swing.ButtonGroup;
 import javax.swing.DefaultCellEditor;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.Icon;
@@ -26,24 +25,35 @@ import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JRadioButton;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.ListCellRenderer;
+import javax.swing.ListSelectionModel;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.UIManager;
+import javax.swing.WindowConstants;
 import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableRowSorter;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.GridLayout;
 import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.DataFlavor;
@@ -53,15 +63,19 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Objects;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -77,13 +91,7 @@ import java.util.stream.Stream;
  */
 public class RetweetGeneratorUI extends JPanel {
 
-    private static final DateTimeFormatter TWITTER_TIMESTAMP_FORMAT =
-        DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss Z yyyy", Locale.ENGLISH);
-    private static final int TWITTER_OLD_MAX_LENGTH = 140;
-    private static final int ID_LENGTH = 16;
-    private static final Random R = new Random();
-    public static final String ELLIPSIS = "\u2026";
-    private static ObjectMapper JSON = new ObjectMapper();
+    private static final int LOAD_BATCH_SIZE = 500;
     private static final ImageIcon DELETE_ICON = new ImageIcon(
         RetweetGeneratorUI.class.getResource("/icons/Remove-16.png")
     );
@@ -95,20 +103,76 @@ public class RetweetGeneratorUI extends JPanel {
     private DefaultTableModel tableModel;
     private JTable tweetTable;
     private JComboBox<String> namePicker;
+    private JButton addButton;
+    private boolean editable = false; // only once the whole corpus is loaded, as it can't be saved before
 
     private enum COMMANDS { RT, DELETE }
 
-    private final String[] columnNames = {"RT", "User", "Tweet Text", "Delete"};
+    private final String[] columnNames = {"RT", "User", "Tweet Text", "Delete", "Key"};
+    private static final int KEY_COLUMN = 4; // hidden from view
 
     private final TweetCorpusModel model;
+    private final RetweetBuffer retweetBuffer;
+    private final RetweetLog retweetLog;
+    private JPanel loadingPanel;
+    private JProgressBar loadProgress;
+    private SwingWorker<Boolean, List<Object[]>> loader;
+    private long lastShownKey = -1;
+    private boolean saving = false; // only touched on the EDT
+    private boolean saveAgain = false;
+    private boolean exitAfterSave = false;
+    private boolean loadFailed = false; // so a reload that keeps failing is only reported once
     private final SortedComboBoxModel nameCBModel = new SortedComboBoxModel(new String[]{""});
 
-    public RetweetGeneratorUI(TweetCorpusModel model) {
+    public RetweetGeneratorUI(TweetCorpusModel model, RetweetLog retweetLog) {
         this.model = model;
+        this.retweetBuffer = new RetweetBuffer(model);
+        this.retweetLog = retweetLog;
 
         buildUI();
     }
 
+    /**
+     * Shows the UI in its own window and starts loading the corpus into it.
+     * The window is built on the event dispatch thread, so the caller can get
+     * on with starting anything else (e.g. the HTTP service) meanwhile.
+     *
+     * @param title The window's title.
+     * @param model The corpus to show.
+     * @param retweetLog Where to record the retweets made.
+     * @param watchPollMillis The longest time between checks of the tweets file, or 0 not to watch it.
+     */
+    public static void launch(
+        final String title,
+        final TweetCorpusModel model,
+        final RetweetLog retweetLog,
+        final long watchPollMillis
+    ) {
+        SwingUtilities.invokeLater(() -> {
+            final JFrame frame = new JFrame(title);
+            frame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+            final RetweetGeneratorUI ui = new RetweetGeneratorUI(model, retweetLog);
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(final WindowEvent e) {
+                    ui.exitOnceSaved();
+                }
+            });
+            frame.setContentPane(ui);
+            System.out.println("UI built");
+
+            // Display the frame/window
+            frame.setSize(600, 400);
+            frame.setVisible(true);
+
+            // the model loads in the background, once the UI is showing
+            SwingUtilities.invokeLater(() -> ui.loadCorpus(watchPollMillis));
+
+            System.out.println(title + " is now running...");
+        });
+    }
+
     private void buildUI() {
 
         // STRUCTURE
@@ -148,6 +212,10 @@ public class RetweetGeneratorUI extends JPanel {
             JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED,
             JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED
         );
+        tableScrollPane.getViewport().addChangeListener(e -> prefetchRetweets());
+        tweetTable.getSelectionModel().addListSelectionListener(e -> {
+            if (! e.getValueIsAdjusting()) prefetchRetweets();
+        });
 
         gbc = new GridBagConstraints();
         gbc.gridwidth = 2;
@@ -160,7 +228,8 @@ public class RetweetGeneratorUI extends JPanel {
 
         // add JSON button
         row++;
-        final JButton addButton = new JButton("Add a tweet's JSON from clipboard");
+        addButton = new JButton("Add a tweet's JSON from clipboard");
+        addButton.setEnabled(false);
 
         gbc = new GridBagConstraints();
         gbc.gridwidth = 2;
@@ -169,7 +238,55 @@ public class RetweetGeneratorUI extends JPanel {
         add(addButton, gbc);
 
 
+        // batch retweet button
+        row++;
+        final JButton batchButton = new JButton("Retweet selected tweets...");
+        batchButton.setToolTipText("Retweet all the selected tweets, as one or more retweeters");
+
+        gbc = new GridBagConstraints();
+        gbc.gridwidth = 2;
+        gbc.gridy = row;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(5, 0, 0, 0);
+        add(batchButton, gbc);
+
+
+        // analytics button
+        row++;
+        final JButton analyseButton = new JButton("Analyse corpus...");
+        analyseButton.setToolTipText("Count authors, hashtags, mentions, languages, retweet depths and times");
+
+        gbc = new GridBagConstraints();
+        gbc.gridwidth = 2;
+        gbc.gridy = row;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(5, 0, 0, 0);
+        add(analyseButton, gbc);
+
+
+        // loading progress, only visible while the corpus is loading
+        row++;
+        loadProgress = new JProgressBar(0, 100);
+        loadProgress.setStringPainted(true);
+        final JButton cancelLoadButton = new JButton("Cancel");
+        cancelLoadButton.setToolTipText("Stop loading tweets (changes will not be saved)");
+        loadingPanel = new JPanel(new BorderLayout(5, 0));
+        loadingPanel.add(loadProgress);
+        loadingPanel.add(cancelLoadButton, BorderLayout.EAST);
+        loadingPanel.setVisible(false);
+
+        gbc = new GridBagConstraints();
+        gbc.gridwidth = 2;
+        gbc.gridy = row;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(5, 0, 0, 0);
+        add(loadingPanel, gbc);
+
+
         // BEHAVIOUR
+        cancelLoadButton.addActionListener(e -> {
+            if (loader != null) loader.cancel(false);
+        });
         nameButton.addActionListener(e -> {
             final String newName = generateName(nameCBModel.getElements());
             namePicker.addItem(newName);
@@ -178,15 +295,22 @@ public class RetweetGeneratorUI extends JPanel {
         namePicker.addActionListener(e -> {
             final String newName = (String) namePicker.getSelectedItem();
             namePicker.addItem(newName);
+            retweetBuffer.setRetweeter(newName);
+            prefetchRetweets();
+        });
+        batchButton.addActionListener(e -> retweetSelected());
+        analyseButton.addActionListener(e -> {
+            analyseButton.setEnabled(false);
+            analyseCorpus(() -> analyseButton.setEnabled(true));
         });
         addButton.addActionListener(e -> {
             Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
             String maybeJson = "unset";
             try {
                 maybeJson = (String) clipboard.getData(DataFlavor.stringFlavor);
-                model.addTweet(maybeJson);
-                model.saveModel();
-                SwingUtilities.invokeLater(this::updateTweetTable);
+                final long key = model.addTweet(maybeJson);
+                appendRows(createRows(Collections.singletonList(key))); // before any appended while saving
+                saveCorpus();
             } catch (UnsupportedFlavorException | IOException ex) {
                 JOptionPane.showMessageDialog(
                     RetweetGeneratorUI.this,
@@ -199,6 +323,335 @@ public class RetweetGeneratorUI extends JPanel {
         });
     }
 
+    /**
+     * Loads the corpus in the background, adding tweets to the table in batches
+     * as they arrive so the UI is usable straight away.
+     */
+    public void loadCorpus() {
+        loadCorpus(0L);
+    }
+
+    /**
+     * Loads the corpus in the background, as {@link #loadCorpus()} does, and
+     * then keeps watching the tweets file for tweets appended by other programs.
+     *
+     * @param watchPollMillis The longest time between checks of the file, or 0 not to watch it.
+     */
+    public void loadCorpus(final long watchPollMillis) {
+        startLoading(false, watchPollMillis);
+    }
+
+    /**
+     * Clears the table and loads the corpus again in the background, in the
+     * same way, once another program has rewritten the tweets file. Tweets
+     * can't be added or deleted until it has finished.
+     */
+    private void reloadCorpus() {
+        if (loader != null && ! loader.isDone()) {
+            return; // already loading
+        }
+        tableModel.setRowCount(0); // the reloaded tweets get new keys, so they're all appended
+        startLoading(true, 0L);
+    }
+
+    private void startLoading(final boolean reload, final long watchPollMillis) {
+        setEditable(false);
+        loadingPanel.setVisible(true);
+        loadProgress.setString(reload ? "Reloading tweets..." : "Loading tweets...");
+        loadProgress.setValue(0);
+        loader = new SwingWorker<Boolean, List<Object[]>>() {
+            @Override
+            protected Boolean doInBackground() {
+                final TweetCorpusModel.LoadListener listener = (keys, bytesRead, totalBytes) -> {
+                    publish(createRows(keys)); // parsed here, to keep the work off the EDT
+                    setProgress(totalBytes == 0 ? 100 : (int) Math.min(100, 100 * bytesRead / totalBytes));
+                };
+                return reload
+                    ? model.reloadTweets(LOAD_BATCH_SIZE, listener, this::isCancelled)
+                    : model.loadTweets(LOAD_BATCH_SIZE, listener, this::isCancelled);
+            }
+
+            @Override
+            protected void process(final List<List<Object[]>> batches) {
+                final boolean first = tableModel.getRowCount() == 0;
+                batches.forEach(RetweetGeneratorUI.this::appendRows);
+                loadProgress.setString(tableModel.getRowCount() + " tweets loaded");
+                if (first) {
+                    resetColumnLayout();
+                    prefetchRetweets();
+                }
+            }
+
+            @Override
+            protected void done() {
+                loadingPanel.setVisible(false);
+                revalidate();
+                resetColumnLayout();
+                prefetchRetweets();
+                System.out.println(
+                    (isCancelled() ? "Cancelled loading after " : "Loaded ") + model.size() + " tweets"
+                );
+                final boolean loaded = ! isCancelled() && loadedFully();
+                setEditable(loaded);
+                if (! isCancelled() && ! loaded && ! loadFailed) {
+                    JOptionPane.showMessageDialog(
+                        RetweetGeneratorUI.this,
+                        "Could not " + (reload ? "reload " : "load ") + model.getFile() +
+                            "\n(see the console for why), so tweets can't be added or deleted" +
+                            (reload ? "\nuntil it has been reloaded, which will be tried again" : ""),
+                        "Load error",
+                        JOptionPane.ERROR_MESSAGE
+                    );
+                }
+                loadFailed = ! isCancelled() && ! loaded;
+                if (! isCancelled() && watchPollMillis > 0) {
+                    watchTweetsFile(watchPollMillis);
+                }
+            }
+
+            private boolean loadedFully() {
+                try {
+                    return get();
+                } catch (InterruptedException | ExecutionException e) {
+                    return false;
+                }
+            }
+        };
+        loader.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                loadProgress.setValue((Integer) e.getNewValue());
+            }
+        });
+        loader.execute();
+    }
+
+    /**
+     * Saves the corpus to the tweets file in the background, as rewriting a
+     * large file takes a while. Changes made while a save is running are
+     * saved together once it finishes, rather than each starting another.
+     */
+    private void saveCorpus() {
+        if (saving) {
+            saveAgain = true;
+            return;
+        }
+        saving = true;
+        new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() {
+                return model.saveModel(RetweetGeneratorUI.this::tweetsAppended);
+            }
+
+            @Override
+            protected void done() {
+                saving = false;
+                if (saveAgain) {
+                    saveAgain = false;
+                    saveCorpus(); // will report any failure
+                    return;
+                }
+                if (exitAfterSave) {
+                    System.exit(0);
+                }
+                boolean saved;
+                try {
+                    saved = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                    saved = false;
+                }
+                if (! saved) {
+                    JOptionPane.showMessageDialog(
+                        RetweetGeneratorUI.this,
+                        "Could not save the changes to " + model.getFile() + "\n(see the console for why)",
+                        "Save error",
+                        JOptionPane.ERROR_MESSAGE
+                    );
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Exits, but not while the tweets file is half written.
+     */
+    private void exitOnceSaved() {
+        if (saving) {
+            exitAfterSave = true;
+            System.out.println("Exiting once the tweets file is saved");
+        } else {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Allows or prevents adding and deleting tweets.
+     */
+    private void setEditable(final boolean editable) {
+        this.editable = editable;
+        addButton.setEnabled(editable);
+        tweetTable.repaint(); // the delete buttons
+    }
+
+    /**
+     * Asks which retweeters to use and where to put the results, then retweets
+     * every selected tweet as each of them in the background, writing all the
+     * retweets as one block of JSON lines to the clipboard or a file.
+     */
+    private void retweetSelected() {
+        final int[] rows = tweetTable.getSelectedRows();
+        if (rows.length == 0) {
+            JOptionPane.showMessageDialog(
+                this,
+                "Select one or more tweets to retweet first",
+                "Batch retweet",
+                JOptionPane.INFORMATION_MESSAGE
+            );
+            return;
+        }
+        final List<Long> keys = IntStream.of(rows).mapToObj(this::keyAt).collect(Collectors.toList());
+
+        // choose the retweeters and the destination
+        final List<String> names = nameCBModel.getElements().stream()
+            .filter(n -> n != null && ! n.trim().isEmpty())
+            .collect(Collectors.toList());
+        final JList<String> nameList = new JList<>(names.toArray(new String[0]));
+        nameList.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        nameList.setVisibleRowCount(8);
+        nameList.setSelectedValue(namePicker.getSelectedItem(), true);
+        final JRadioButton toClipboard = new JRadioButton("Copy to clipboard", true);
+        final JRadioButton toFile = new JRadioButton("Save to file...");
+        final ButtonGroup destinations = new ButtonGroup();
+        destinations.add(toClipboard);
+        destinations.add(toFile);
+        final JPanel destinationPanel = new JPanel(new GridLayout(0, 1));
+        destinationPanel.add(toClipboard);
+        destinationPanel.add(toFile);
+        final JPanel panel = new JPanel(new BorderLayout(0, 5));
+        panel.add(new JLabel(
+            "Retweet " + rows.length + " tweet(s) as (none selected for a random name):"
+        ), BorderLayout.NORTH);
+        panel.add(new JScrollPane(nameList));
+        panel.add(destinationPanel, BorderLayout.SOUTH);
+
+        final int choice = JOptionPane.showConfirmDialog(
+            this, panel, "Batch retweet", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE
+        );
+        if (choice != JOptionPane.OK_OPTION) {
+            return;
+        }
+        final List<String> retweeters = nameList.getSelectedValuesList().isEmpty()
+            ? Collections.singletonList(generateName())
+            : nameList.getSelectedValuesList();
+        final Path target;
+        if (toFile.isSelected()) {
+            final JFileChooser chooser = new JFileChooser();
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            target = chooser.getSelectedFile().toPath();
+        } else {
+            target = null;
+        }
+
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws IOException {
+                final List<ImmutableTweetModel> tweets = keys.stream()
+                    .map(model::getByKey)
+                    .filter(Objects::nonNull) // may have been removed meanwhile
+                    .collect(Collectors.toList());
+                final String retweets = RetweetFactory.makeRetweets(tweets, retweeters);
+                retweetLog.appendLines(retweets);
+                if (target != null) {
+                    Files.write(target, retweets.getBytes(StandardCharsets.UTF_8));
+                }
+                return retweets;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    final String retweets = get();
+                    if (target == null) {
+                        pushToClipboard(retweets);
+                    }
+                    System.out.println(
+                        "Generated " + (keys.size() * retweeters.size()) + " retweets by " + retweeters +
+                        (target == null ? "" : " in " + target)
+                    );
+                } catch (InterruptedException | ExecutionException ex) {
+                    JOptionPane.showMessageDialog(
+                        RetweetGeneratorUI.this,
+                        "Error creating retweets:\n" + ex.getMessage(),
+                        "Batch retweet error",
+                        JOptionPane.ERROR_MESSAGE
+                    );
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Analyses the tweets loaded so far in the background and shows the results.
+     *
+     * @param whenDone Run on the event dispatch thread once the results are shown.
+     */
+    private void analyseCorpus(final Runnable whenDone) {
+        new SwingWorker<CorpusAnalytics.Report, Void>() {
+            @Override
+            protected CorpusAnalytics.Report doInBackground() {
+                return CorpusAnalytics.analyse(model.snapshot());
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    final CorpusAnalytics.Report report = get();
+                    System.out.println("Analysed " + report.getTweetCount() + " tweets in " + report.getElapsedMillis() + " ms");
+                    JOptionPane.showMessageDialog(
+                        RetweetGeneratorUI.this,
+                        new CorpusAnalyticsPanel(report),
+                        "Corpus analytics",
+                        JOptionPane.PLAIN_MESSAGE
+                    );
+                } catch (InterruptedException | ExecutionException ex) {
+                    JOptionPane.showMessageDialog(
+                        RetweetGeneratorUI.this,
+                        "Error analysing the corpus:\n" + ex.getMessage(),
+                        "Analytics error",
+                        JOptionPane.ERROR_MESSAGE
+                    );
+                    ex.printStackTrace();
+                } finally {
+                    whenDone.run();
+                }
+            }
+        }.execute();
+    }
+
+    private void watchTweetsFile(final long pollMillis) {
+        new TweetFileWatcher(model, model.getFile(), pollMillis, new TweetFileWatcher.Listener() {
+            @Override
+            public void tweetsAppended(final List<Long> keys) {
+                final List<Object[]> rows = createRows(keys);
+                SwingUtilities.invokeLater(() -> appendRows(rows));
+            }
+
+            @Override
+            public void fileRewritten(final TweetCorpusModel model) {
+                SwingUtilities.invokeLater(RetweetGeneratorUI.this::reloadCorpus);
+            }
+        }).start();
+    }
+
+    /** Shows tweets other programs appended to the tweets file, found while saving it. */
+    private void tweetsAppended(final List<Long> keys, final long bytesRead, final long totalBytes) {
+        final List<Object[]> rows = createRows(keys);
+        SwingUtilities.invokeLater(() -> appendRows(rows));
+    }
+
     private String generateName() {
         return generateName(Collections.emptyList()); // anything will do
     }
@@ -213,24 +666,6 @@ public class RetweetGeneratorUI extends JPanel {
         return newName;
     }
 
-    private String now() {
-        return TWITTER_TIMESTAMP_FORMAT.format(ZonedDateTime.now());
-    }
-
-    /**
-     * Creates a plausible tweet ID.
-     *
-     * @return A plausible tweet ID.
-     */
-    private static String generateID() {
-        final StringBuilder idStr = new StringBuilder(Long.toString(System.currentTimeMillis()));
-        while (idStr.length() < ID_LENGTH) {
-            idStr.append(R.nextInt(10)); // 0-9
-        }
-        return idStr.toString();
-    }
-
-
     private void pushToClipboard(final String s) {
         Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
         clipboard.setContents(new StringSelection(s), null);
@@ -240,6 +675,8 @@ public class RetweetGeneratorUI extends JPanel {
         tableModel = new DefaultTableModel();
 
         tweetTable = new JTable(tableModel);
+        tweetTable.setAutoCreateRowSorter(true);
+        tweetTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         updateTweetTable();
 
@@ -265,91 +702,158 @@ public class RetweetGeneratorUI extends JPanel {
     class TableButtonListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            final int row = e.getModifiers();
-            switch (COMMANDS.valueOf(e.getActionCommand())) {
+            // "COMMAND:key", the key being found when the button was pressed, as rows may move before it's released
+            final String[] command = e.getActionCommand().split(":", 2);
+            final long key = Long.parseLong(command[1]);
+            switch (COMMANDS.valueOf(command[0])) {
                 case RT:
+                    final ImmutableTweetModel tweet = model.getByKey(key);
+                    if (tweet == null) {
+                        System.err.println("Tweet " + key + " is no longer in the corpus");
+                        SwingUtilities.invokeLater(() -> removeRow(key));
+                        break;
+                    }
                     String retweeter = (String) namePicker.getSelectedItem();
                     if (retweeter == null || retweeter.trim().isEmpty()) {
                         retweeter = generateName();
                     }
-                    String retweet = makeRetweet(retweeter, model.get(row));
+                    String retweet;
+                    try {
+                        retweet = retweetBuffer.take(retweeter.trim(), key);
+                        if (retweet == null) {
+                            System.err.println("Tweet " + key + " is no longer in the corpus");
+                            SwingUtilities.invokeLater(() -> removeRow(key));
+                            break;
+                        }
+                        retweetLog.append(retweet);
+                    } catch (JsonProcessingException ex) {
+                        JOptionPane.showMessageDialog(
+                            RetweetGeneratorUI.this,
+                            "Error creating JSON for retweet:\n" + ex.getMessage(),
+                            "JSON Error",
+                            JOptionPane.ERROR_MESSAGE
+                        );
+                        retweet = "";
+                    }
                     System.out.println("Generated retweet by @" + retweeter);
                     pushToClipboard(retweet);
 
                     break;
                 case DELETE:
-                    System.out.println("Deleting tweet in row " + row);
-                    model.removeTweet(row);
-                    model.saveModel();
-                    SwingUtilities.invokeLater(RetweetGeneratorUI.this::updateTweetTable);
+                    if (! editable) {
+                        break; // still loading, so the change couldn't be saved
+                    }
+                    System.out.println("Deleting tweet " + key);
+                    model.removeByKey(key);
+                    saveCorpus();
+                    SwingUtilities.invokeLater(() -> removeRow(key)); // once the editor has let go of it
                     break;
             }
         }
     }
 
-    private String makeRetweet(final String retweeter, final TweetModel originalTweet) {
-
-        final TweetModel retweet = new TweetModel(JsonNodeFactory.instance.objectNode());
-
-        final String newID = generateID();
-        retweet.set("id_str", newID);
-        retweet.set("id", BigDecimal.valueOf(Long.parseLong(newID)));
-
-        retweet.set("user", JsonNodeFactory.instance.objectNode());
-        retweet.set("user.screen_name", retweeter);
-
-        retweet.set("created_at", now());
-
-        // it occurred to me that the original tweet might itself be a retweet
-        final TweetModel tweetToRetweet = ! originalTweet.get("retweeted_status").isNull()
-            ? new TweetModel(originalTweet.get("retweeted_status"))
-            : originalTweet;
+    private void updateTweetTable() {
+        resetTableData();
+        resetTableButtonHelpers(new TableButtonListener());
+        resetColumnLayout();
+        prefetchRetweets();
+    }
 
-        retweet.set("retweeted_status", tweetToRetweet.getRoot());
+    /**
+     * Asks for retweets of the selected and visible rows to be built in the
+     * background, selected rows first, as they're the most likely to be next.
+     */
+    private void prefetchRetweets() {
+        final Set<Long> keys = new LinkedHashSet<>();
+        for (final int row : tweetTable.getSelectedRows()) {
+            keys.add(keyAt(row));
+        }
+        final Rectangle visible = tweetTable.getVisibleRect();
+        final int first = tweetTable.rowAtPoint(visible.getLocation());
+        if (first >= 0) {
+            int last = tweetTable.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+            if (last < 0) {
+                last = tweetTable.getRowCount() - 1;
+            }
+            for (int row = first; row <= last; row++) {
+                keys.add(keyAt(row));
+            }
+        }
+        retweetBuffer.prefetch(keys);
+    }
 
-        final String originalAuthor = tweetToRetweet.get("user.screen_name").asText("<unset>");
-        final String originalText = ! tweetToRetweet.get("truncated").asBoolean(false)
-            ? tweetToRetweet.get("text").asText("")
-            : tweetToRetweet.get("full_text").asText("");
+    private long keyAt(final int viewRow) {
+        return (Long) tableModel.getValueAt(tweetTable.convertRowIndexToModel(viewRow), KEY_COLUMN);
+    }
 
-        final String rtText = "RT @" + originalAuthor + ": " + originalText;
-        retweet.set("full_text", rtText);
-        final boolean truncate = rtText.length() > TWITTER_OLD_MAX_LENGTH;
-        retweet.set("truncated", truncate);
-        retweet.set(
-            "text",
-            truncate ? rtText.substring(0, TWITTER_OLD_MAX_LENGTH - 1) + ELLIPSIS : rtText
-        );
+    private void resetTableData() {
+        final CorpusSnapshot snapshot = model.snapshot();
+        lastShownKey = snapshot.size() == 0 ? -1 : snapshot.getKey(snapshot.size() - 1);
+        tableModel.setDataVector(createDataVector(snapshot), columnNames);
+        tweetTable.removeColumn(tweetTable.getColumn(columnNames[KEY_COLUMN]));
+        final TableRowSorter<?> sorter = (TableRowSorter<?>) tweetTable.getRowSorter();
+        sorter.setSortable(0, false);
+        sorter.setSortable(3, false);
+    }
 
-        try {
-            return JSON.writeValueAsString(retweet.getRoot());
-        } catch (JsonProcessingException e) {
-            JOptionPane.showMessageDialog(
-                this,
-                "Error creating JSON for retweet:\n" + e.getMessage(),
-                "JSON Error",
-                JOptionPane.ERROR_MESSAGE
-            );
-            return "";
+    private Object[][] createDataVector(final CorpusSnapshot snapshot) {
+        Object[][] data = new Object[snapshot.size()][];
+        for (int i = 0; i < snapshot.size(); i++) {
+            data[i] = createRow(snapshot.getKey(i), snapshot.get(i));
         }
+        return data;
     }
 
-    private void updateTweetTable() {
-        resetTableData();
-        resetTableButtonHelpers(new TableButtonListener());
-        resetColumnLayout();
+    private Object[] createRow(final long key, final ImmutableTweetModel t) {
+        return new Object[]{
+            "RT",
+            TweetCorpusModel.getScreenName(t),
+            TweetCorpusModel.getText(t),
+            DELETE_ICON,
+            key
+        };
     }
 
-    private void resetTableData() {
-        tableModel.setDataVector(createDataVector(model), columnNames);
+    /**
+     * Removes the row showing a tweet, leaving the rest of the table alone.
+     */
+    private void removeRow(final long key) {
+        for (int row = tableModel.getRowCount() - 1; row >= 0; row--) {
+            if (key == (Long) tableModel.getValueAt(row, KEY_COLUMN)) {
+                tableModel.removeRow(row);
+                prefetchRetweets();
+                return;
+            }
+        }
     }
 
-    private Object[][] createDataVector(TweetCorpusModel model) {
-        Object[][] data = new Object[model.size()][];
-        for (int i = 0; i < model.size(); i++) {
-            data[i] = new Object[]{"RT", model.getScreenName(i), model.getText(i), DELETE_ICON};
+    /**
+     * Builds table rows for newly added tweets. As this parses the tweets, it
+     * is best done off the event dispatch thread.
+     */
+    private List<Object[]> createRows(final List<Long> keys) {
+        final List<Object[]> rows = new ArrayList<>(keys.size());
+        for (final long key : keys) {
+            final ImmutableTweetModel t = model.getByKey(key);
+            if (t != null) {
+                rows.add(createRow(key, t));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Adds rows for newly added tweets, skipping any already shown by a full
+     * refresh of the table (keys only ever increase).
+     */
+    private void appendRows(final List<Object[]> rows) {
+        for (final Object[] row : rows) {
+            final long key = (Long) row[KEY_COLUMN];
+            if (key > lastShownKey) {
+                tableModel.addRow(row);
+                lastShownKey = key;
+            }
         }
-        return data;
     }
 
 
@@ -486,6 +990,7 @@ public class RetweetGeneratorUI extends JPanel {
                 setText((value == null) ? "" : value.toString());
             } else {
                 setIcon((Icon) value);
+                setEnabled(editable); // the delete button
             }
             return this;
         }
@@ -496,7 +1001,8 @@ public class RetweetGeneratorUI extends JPanel {
         protected JButton button;
 
         private boolean isPushed;
-        private int pushedRow, pushedCol;
+        private long pushedKey;
+        private int pushedCol;
 
         public ButtonEditor(final ActionListener action) {
             super(new JCheckBox());
@@ -524,8 +1030,9 @@ public class RetweetGeneratorUI extends JPanel {
                 button.setText((value == null) ? "" : value.toString());
             } else {
                 button.setIcon((Icon) value);
+                button.setEnabled(editable); // the delete button
             }
-            pushedRow = row;
+            pushedKey = keyAt(row); // now, while the view row is still the one pressed
             pushedCol = column;
             isPushed = true;
             return button;
@@ -536,10 +1043,7 @@ public class RetweetGeneratorUI extends JPanel {
                 ActionEvent e = new ActionEvent(
                     button,
                     ActionEvent.ACTION_PERFORMED,
-                    pushedCol == 0 /* ie pushedCol != 3 */
-                        ? COMMANDS.RT.toString()
-                        : COMMANDS.DELETE.toString(),
-                    pushedRow // use the modifiers field
+                    (pushedCol == 0 /* ie pushedCol != 3 */ ? COMMANDS.RT : COMMANDS.DELETE) + ":" + pushedKey
                 );
                 action.actionPerformed(e);
             }
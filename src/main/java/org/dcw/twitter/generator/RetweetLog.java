@@ -0,0 +1,540 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An append-only record of every retweet generated, kept next to the tweets
+ * file, so there is a record of what was injected into an experiment.
+ *
+ * Each line of the log is a JSON object holding the retweet's
+ * <code>id_str</code>, the <code>retweeter</code>'s screen name, the
+ * <code>source_id_str</code> of the tweet retweeted, when it was logged
+ * (<code>logged_at_ms</code>) and the <code>retweet</code> itself.
+ *
+ * Retweets are handed to a background writer, which writes whatever has queued
+ * up as one group and forces it to disk at most every <code>syncMillis</code>,
+ * so generating retweets quickly does not wait on the disk. Who retweeted
+ * what is indexed in memory, while the retweets themselves are read back from
+ * the log on demand.
+ *
+ * Several programs may log to the same file (e.g. the UI and a headless HTTP
+ * service), as each group is written under a lock on the file, at its end,
+ * after indexing whatever the others have written since.
+ */
+public class RetweetLog implements Closeable {
+    public static final String SUFFIX = ".retweets.log";
+    public static final long DEFAULT_SYNC_MILLIS = 1000;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int MAX_GROUP_SIZE = 4096;
+
+    private final Path file;
+    private final long syncMillis;
+    private final FileChannel channel;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Map<String, Queue<Entry>> bySource = new ConcurrentHashMap<>();
+    private final Map<String, Queue<Entry>> byRetweeter = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Thread writer;
+    private final ReadWriteLock closing = new ReentrantReadWriteLock(); // appends share it; closing takes it alone
+    private volatile boolean closed = false;
+    private long end; // how much of the file has been indexed; only touched by the writer, once open
+
+    /**
+     * @param tweetsFile The tweets file the retweets are made from.
+     * @return Where the log for that file lives.
+     */
+    public static Path pathFor(final String tweetsFile) {
+        return Paths.get(tweetsFile + SUFFIX);
+    }
+
+    /**
+     * Opens a log, creating it if necessary, and indexes what is already in it.
+     *
+     * @param file The log file.
+     * @param syncMillis The longest time a logged retweet may wait to be forced to disk.
+     * @throws IOException If the log cannot be opened or read.
+     */
+    public RetweetLog(final Path file, final long syncMillis) throws IOException {
+        this.file = file;
+        this.syncMillis = syncMillis;
+        this.channel = FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        final FileLock lock = channel.lock();
+        try {
+            catchUp();
+        } finally {
+            lock.release();
+        }
+        System.out.println("Logging retweets to " + file + " (" + size() + " so far)");
+        this.writer = new Thread(this::writeGroups, "retweet-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues a retweet to be logged, waiting only if the writer has fallen far behind.
+     *
+     * @param retweetJson The retweet, as made by {@link RetweetFactory}.
+     */
+    public void append(final String retweetJson) {
+        Preconditions.checkNotNull(retweetJson, "retweetJson");
+        // held until queued, so the log can't close in between and leave the retweet unwritten
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The retweet log " + file + " is closed");
+            }
+            queue.put(new Pending(retweetJson, System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    /**
+     * Queues several retweets to be logged.
+     *
+     * @param retweetsJson Retweets, one per line.
+     */
+    public void appendLines(final String retweetsJson) {
+        for (final String line : retweetsJson.split("\n")) {
+            if (! line.trim().isEmpty()) {
+                append(line);
+            }
+        }
+    }
+
+    /**
+     * @param sourceIdStr The <code>id_str</code> of a tweet.
+     * @return The logged retweets of that tweet, oldest first.
+     */
+    public List<Entry> findBySource(final String sourceIdStr) {
+        return find(bySource, sourceIdStr);
+    }
+
+    /**
+     * @param retweeter A screen name.
+     * @return The logged retweets by that account, oldest first.
+     */
+    public List<Entry> findByRetweeter(final String retweeter) {
+        return find(byRetweeter, retweeter);
+    }
+
+    /**
+     * @return How many retweets have been logged (and written, if not yet forced to disk).
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @param entry A logged retweet.
+     * @return The retweet's JSON, read back from the log.
+     * @throws IOException If the log cannot be read.
+     */
+    public String readRetweet(final Entry entry) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry.offset + buffer.position()) < 0) {
+                throw new IOException("Retweet " + entry.idStr + " is missing from " + file);
+            }
+        }
+        try (JsonParser p = Json.FACTORY.createParser(buffer.array())) {
+            p.nextToken();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                final int start = (int) p.getTokenLocation().getByteOffset();
+                p.skipChildren();
+                if ("retweet".equals(field)) {
+                    final int finish = (int) p.getCurrentLocation().getByteOffset();
+                    return new String(buffer.array(), start, finish - start, StandardCharsets.UTF_8);
+                }
+            }
+        }
+        throw new IOException("Retweet " + entry.idStr + " is malformed in " + file);
+    }
+
+    /**
+     * Writes out everything already queued, forces it to disk and stops the writer.
+     */
+    @Override
+    public void close() throws IOException {
+        closing.writeLock().lock(); // once any appends under way have queued their retweets
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.put(Pending.END); // after everything already queued, and wakes the writer
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private static List<Entry> find(final Map<String, Queue<Entry>> index, final String key) {
+        final Queue<Entry> entries = index.get(key);
+        return entries == null ? ImmutableList.of() : ImmutableList.copyOf(entries);
+    }
+
+    /**
+     * Indexes whatever has been written to the log since it was last indexed,
+     * e.g. by other programs logging to the same file, and discards any
+     * incomplete entry left at the end by one that crashed. Must be called
+     * with the file locked.
+     */
+    private void catchUp() throws IOException {
+        final long size = channel.size();
+        if (size < end) {
+            System.err.println("The retweet log " + file + " has been truncated, so indexing it again");
+            bySource.clear();
+            byRetweeter.clear();
+            this.size.set(0);
+            end = 0;
+        }
+        if (size != end) {
+            end = index(end);
+        }
+        if (end < size) {
+            System.err.println("Discarding an incomplete retweet at the end of " + file);
+            channel.truncate(end);
+        }
+    }
+
+    /**
+     * Reads the entries in the log from <code>offset</code> into the indexes.
+     *
+     * @return The offset just past the last complete entry.
+     */
+    private long index(long offset) throws IOException {
+        // read through the log's own channel, as closing another would release the lock on the file
+        final InputStream in = new BufferedInputStream(Channels.newInputStream(channel.position(offset)));
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b != '\n') {
+                line.write(b);
+                continue;
+            }
+            final byte[] bytes = line.toByteArray();
+            line.reset();
+            try {
+                addToIndex(parseEntry(bytes, offset));
+            } catch (IOException e) {
+                System.err.println("Skipping a malformed retweet at offset " + offset + " of " + file);
+            }
+            offset += bytes.length + 1;
+        }
+        return offset;
+    }
+
+    private void writeGroups() {
+        final List<Pending> group = new ArrayList<>(MAX_GROUP_SIZE);
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024 * 1024);
+        long lastSync = System.currentTimeMillis();
+        boolean unsynced = false;
+        boolean finished = false;
+        while (true) {
+            try {
+                final Pending first = queue.poll(Math.max(1, syncMillis), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    queue.drainTo(group, MAX_GROUP_SIZE - 1);
+                }
+            } catch (InterruptedException e) {
+                // carry on until closed, so nothing queued is lost
+            }
+            if (! group.isEmpty() && group.get(group.size() - 1) == Pending.END) {
+                group.remove(group.size() - 1);
+                finished = true;
+            }
+            try {
+                if (! group.isEmpty()) {
+                    final List<Entry> written = write(group, buffer);
+                    group.clear();
+                    unsynced = true;
+                    written.forEach(this::addToIndex);
+                }
+                final long now = System.currentTimeMillis();
+                if (unsynced && (finished || now - lastSync >= syncMillis)) {
+                    channel.force(false);
+                    lastSync = now;
+                    unsynced = false;
+                }
+                if (finished) {
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                // the writer must keep going, or every later retweet would go unlogged
+                System.err.println("Error writing to the retweet log " + file + ": " + e);
+                group.clear();
+                if (finished) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a group of retweets to the end of the log in one go.
+     */
+    private List<Entry> write(final List<Pending> group, final ByteArrayOutputStream buffer) throws IOException {
+        final FileLock lock = channel.lock();
+        try {
+            catchUp();
+            return write(group, buffer, end);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private List<Entry> write(
+        final List<Pending> group,
+        final ByteArrayOutputStream buffer,
+        final long end
+    ) throws IOException {
+        final List<Entry> entries = new ArrayList<>(group.size());
+        buffer.reset();
+        for (final Pending pending : group) {
+            final int start = buffer.size();
+            final Entry entry;
+            try {
+                entry = describe(pending, end + start);
+                try (JsonGenerator g = Json.FACTORY.createGenerator(buffer, JsonEncoding.UTF8)) {
+                    g.writeStartObject();
+                    g.writeStringField("id_str", entry.idStr);
+                    g.writeStringField("retweeter", entry.retweeter);
+                    g.writeStringField("source_id_str", entry.sourceIdStr);
+                    g.writeNumberField("logged_at_ms", entry.loggedAt);
+                    g.writeFieldName("retweet");
+                    g.writeRawValue(pending.json);
+                    g.writeEndObject();
+                }
+            } catch (IOException | RuntimeException e) {
+                // one bad retweet mustn't stop the rest of the group being logged
+                System.err.println("Not logging a malformed retweet: " + e);
+                truncate(buffer, start);
+                continue;
+            }
+            entries.add(new Entry(
+                entry.idStr, entry.retweeter, entry.sourceIdStr, entry.loggedAt,
+                entry.offset, buffer.size() - start
+            ));
+            buffer.write('\n');
+        }
+        final ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, end + bytes.position());
+        }
+        this.end = end + bytes.limit();
+        return entries;
+    }
+
+    /**
+     * Drops anything written to <code>buffer</code> after <code>size</code>.
+     */
+    private static void truncate(final ByteArrayOutputStream buffer, final int size) {
+        if (buffer.size() > size) {
+            final byte[] kept = Arrays.copyOf(buffer.toByteArray(), size);
+            buffer.reset();
+            buffer.write(kept, 0, kept.length);
+        }
+    }
+
+    private void addToIndex(final Entry entry) {
+        bySource.computeIfAbsent(entry.sourceIdStr, k -> new ConcurrentLinkedQueue<>()).add(entry);
+        byRetweeter.computeIfAbsent(entry.retweeter, k -> new ConcurrentLinkedQueue<>()).add(entry);
+        size.incrementAndGet();
+    }
+
+    /**
+     * Picks out what is indexed from a retweet about to be logged.
+     */
+    private static Entry describe(final Pending pending, final long offset) throws IOException {
+        String idStr = null;
+        String retweeter = null;
+        String sourceIdStr = null;
+        try (JsonParser p = Json.FACTORY.createParser(pending.json)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                if ("id_str".equals(field)) {
+                    idStr = p.getValueAsString();
+                } else if ("user".equals(field)) {
+                    retweeter = fieldOf(p, "screen_name");
+                } else if ("retweeted_status".equals(field)) {
+                    sourceIdStr = fieldOf(p, "id_str");
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return new Entry(idStr, retweeter, sourceIdStr, pending.loggedAt, offset, 0);
+    }
+
+    /**
+     * Reads the indexed fields of an entry already in the log, which come before the retweet.
+     */
+    private static Entry parseEntry(final byte[] line, final long offset) throws IOException {
+        String idStr = null;
+        String retweeter = null;
+        String sourceIdStr = null;
+        long loggedAt = 0;
+        try (JsonParser p = Json.FACTORY.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a JSON object");
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                switch (field) {
+                    case "id_str": idStr = p.getValueAsString(); break;
+                    case "retweeter": retweeter = p.getValueAsString(); break;
+                    case "source_id_str": sourceIdStr = p.getValueAsString(); break;
+                    case "logged_at_ms": loggedAt = p.getValueAsLong(); break;
+                    default: p.skipChildren();
+                }
+            }
+        }
+        return new Entry(idStr, retweeter, sourceIdStr, loggedAt, offset, line.length);
+    }
+
+    /**
+     * @return The text of a field of the object at the parser's current token.
+     */
+    private static String fieldOf(final JsonParser p, final String name) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        String value = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = p.getCurrentName();
+            p.nextToken();
+            if (name.equals(field)) {
+                value = p.getValueAsString();
+            } else {
+                p.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * A logged retweet.
+     */
+    public static final class Entry {
+        private final String idStr;
+        private final String retweeter;
+        private final String sourceIdStr;
+        private final long loggedAt;
+        private final long offset;
+        private final int length;
+
+        Entry(
+            final String idStr,
+            final String retweeter,
+            final String sourceIdStr,
+            final long loggedAt,
+            final long offset,
+            final int length
+        ) {
+            this.idStr = Strings.nullToEmpty(idStr);
+            this.retweeter = Strings.nullToEmpty(retweeter);
+            this.sourceIdStr = Strings.nullToEmpty(sourceIdStr);
+            this.loggedAt = loggedAt;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getIdStr() {
+            return idStr;
+        }
+
+        public String getRetweeter() {
+            return retweeter;
+        }
+
+        public String getSourceIdStr() {
+            return sourceIdStr;
+        }
+
+        /** @return When the retweet was logged, in milliseconds since the epoch. */
+        public long getLoggedAt() {
+            return loggedAt;
+        }
+    }
+
+    private static final class Pending {
+        static final Pending END = new Pending(null, 0L); // queued by close(), after which nothing is
+
+        final String json;
+        final long loggedAt;
+
+        Pending(final String json, final long loggedAt) {
+            this.json = json;
+            this.loggedAt = loggedAt;
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small HTTP service on the loopback interface which lets other local
+ * programs search the corpus and request retweets.
+ *
+ * <ul>
+ *   <li><code>GET /tweets?query=text&amp;limit=100</code> lists matching tweets as JSON lines</li>
+ *   <li><code>POST /retweet/{id_str}?retweeter=name</code> returns a retweet of one tweet</li>
+ *   <li><code>GET|POST /retweets?count=N&amp;retweeter=a&amp;retweeter=b[&amp;id=...]</code>
+ *       streams N retweets as chunked JSON lines, cycling through the given
+ *       tweets (or the whole corpus) and retweeters</li>
+ *   <li><code>GET /retweet-log?source=id_str|retweeter=name[&amp;full=true]</code> lists the
+ *       logged retweets of a tweet, or by an account, as JSON lines</li>
+ *   <li><code>GET /stats</code> reports request counts and latency percentiles</li>
+ * </ul>
+ *
+ * Requests are handled on virtual threads when the JVM supports them, and on
+ * a fixed pool of platform threads otherwise.
+ */
+public class RetweetServer {
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_BATCH = 10_000_000;
+    private static final int BACKLOG = 1024;
+    private static final String JSON_LINES = "application/x-ndjson; charset=utf-8";
+
+    private final TweetCorpusModel model;
+    private final RetweetLog retweetLog;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    public RetweetServer(
+        final TweetCorpusModel model,
+        final RetweetLog retweetLog,
+        final int port,
+        final int threads
+    ) throws IOException {
+        this.model = model;
+        this.retweetLog = retweetLog;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.executor = newExecutor(threads);
+        server.setExecutor(executor);
+        server.createContext("/tweets", timed("/tweets", this::handleTweets));
+        server.createContext("/retweet/", timed("/retweet", this::handleRetweet));
+        server.createContext("/retweets", timed("/retweets", this::handleRetweets));
+        server.createContext("/retweet-log", timed("/retweet-log", this::handleRetweetLog));
+        server.createContext("/stats", this::handleStats);
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Serving retweets on http://" + server.getAddress().getHostString() + ":" + getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    /**
+     * Uses a virtual thread per request where available (Java 21+), found
+     * reflectively so the app still builds for and runs on Java 8.
+     */
+    private static ExecutorService newExecutor(final int threads) {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            final ExecutorService executor = (ExecutorService) factory.invoke(null);
+            System.out.println("Handling HTTP requests on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, r -> {
+                final Thread t = new Thread(r, "retweet-server-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private HttpHandler timed(final String endpoint, final HttpHandler handler) {
+        final LatencyHistogram histogram = latencies.computeIfAbsent(endpoint, e -> new LatencyHistogram());
+        return exchange -> {
+            final long start = System.nanoTime();
+            try {
+                handler.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error handling " + exchange.getRequestURI() + ": " + e);
+                if (exchange.getResponseCode() < 0) { // nothing sent yet, so the client can be told
+                    try {
+                        sendText(exchange, 500, "Internal error: " + e.getMessage());
+                    } catch (IOException | RuntimeException ignored) {
+                        // the client has gone
+                    }
+                }
+            } finally {
+                exchange.close();
+                histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            }
+        };
+    }
+
+    private void handleTweets(final HttpExchange exchange) throws IOException {
+        if (! requireMethod(exchange, "GET")) return;
+        final ListMultimap<String, String> params = parseQuery(exchange);
+        final String query = first(params, "query").orElse("").toLowerCase(Locale.ROOT);
+        final int limit;
+        try {
+            limit = Integer.parseInt(first(params, "limit").orElse(Integer.toString(DEFAULT_LIMIT)));
+        } catch (NumberFormatException e) {
+            sendText(exchange, 400, "limit must be a number");
+            return;
+        }
+
+        final CorpusSnapshot snapshot = model.snapshot();
+        exchange.getResponseHeaders().set("Content-Type", JSON_LINES);
+        exchange.sendResponseHeaders(200, 0); // chunked
+        try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody())) {
+            int found = 0;
+            for (int i = 0; i < snapshot.size() && found < limit; i++) {
+                final ObjectNode summary = summarise(snapshot.getRawJson(i));
+                if (summary == null) {
+                    continue;
+                }
+                if (query.isEmpty()
+                    || summary.get("screen_name").asText().toLowerCase(Locale.ROOT).contains(query)
+                    || summary.get("text").asText().toLowerCase(Locale.ROOT).contains(query)) {
+                    out.write(Json.WRITER.writeValueAsBytes(summary));
+                    out.write('\n');
+                    found++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams through a tweet's raw JSON for the fields <code>/tweets</code>
+     * lists, rather than decoding it through the corpus's cache of parsed
+     * tweets, so a search neither builds a tree per tweet nor evicts the
+     * tweets the UI is using.
+     *
+     * @return The tweet's <code>id_str</code>, <code>screen_name</code> and
+     *         <code>text</code>, or <code>null</code> if it is unreadable.
+     */
+    private static ObjectNode summarise(final byte[] raw) {
+        String idStr = "";
+        String screenName = "<empty>";
+        String text = null;
+        String fullText = "";
+        try (JsonParser p = Json.FACTORY.createParser(raw)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                if ("user".equals(field) && p.currentToken() == JsonToken.START_OBJECT) {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        final String userField = p.getCurrentName();
+                        p.nextToken();
+                        if ("screen_name".equals(userField) && p.currentToken().isScalarValue()) {
+                            screenName = p.getValueAsString("<empty>");
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                } else if (! p.currentToken().isScalarValue()) {
+                    p.skipChildren();
+                } else if ("id_str".equals(field)) {
+                    idStr = p.getValueAsString("");
+                } else if ("text".equals(field)) {
+                    text = p.getValueAsString();
+                } else if ("full_text".equals(field)) {
+                    fullText = p.getValueAsString("");
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        final ObjectNode summary = JsonNodeFactory.instance.objectNode();
+        summary.put("id_str", idStr);
+        summary.put("screen_name", screenName);
+        summary.put("text", text == null ? fullText : text);
+        return summary;
+    }
+
+    private void handleRetweet(final HttpExchange exchange) throws IOException {
+        if (! requireMethod(exchange, "POST")) return;
+        final String id = exchange.getRequestURI().getPath().substring("/retweet/".length());
+        final Optional<String> retweeter = first(parseQuery(exchange), "retweeter");
+        if (! retweeter.isPresent() || retweeter.get().trim().isEmpty()) {
+            sendText(exchange, 400, "retweeter is required");
+            return;
+        }
+        final Optional<ImmutableTweetModel> tweet = model.findKeyById(id).map(model::getByKey);
+        if (! tweet.isPresent()) {
+            sendText(exchange, 404, "No tweet with id " + id);
+            return;
+        }
+        final String retweet = RetweetFactory.makeRetweet(retweeter.get().trim(), tweet.get());
+        retweetLog.append(retweet);
+        final byte[] body = retweet.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void handleRetweets(final HttpExchange exchange) throws IOException {
+        if (! requireMethod(exchange, "GET", "POST")) return;
+        final ListMultimap<String, String> params = parseQuery(exchange);
+        final List<String> retweeters = params.get("retweeter");
+        final int count;
+        try {
+            count = Integer.parseInt(first(params, "count").orElse("1"));
+        } catch (NumberFormatException e) {
+            sendText(exchange, 400, "count must be a number");
+            return;
+        }
+        if (retweeters.isEmpty() || count < 1 || count > MAX_BATCH) {
+            sendText(exchange, 400, "At least one retweeter and a count of 1-" + MAX_BATCH + " are required");
+            return;
+        }
+
+        final List<ImmutableTweetModel> tweets;
+        if (params.containsKey("id")) {
+            tweets = new ArrayList<>();
+            for (final String id : params.get("id")) {
+                final Optional<ImmutableTweetModel> tweet = model.findKeyById(id).map(model::getByKey);
+                if (! tweet.isPresent()) {
+                    sendText(exchange, 404, "No tweet with id " + id);
+                    return;
+                }
+                tweets.add(tweet.get());
+            }
+        } else {
+            tweets = uncached(model.snapshot());
+        }
+        if (tweets.isEmpty()) {
+            sendText(exchange, 404, "There are no tweets to retweet");
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", JSON_LINES);
+        exchange.sendResponseHeaders(200, 0); // chunked, so retweets go out as they're made
+        try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody())) {
+            for (int i = 0; i < count; i++) {
+                final String retweeter = retweeters.get(i % retweeters.size());
+                final ImmutableTweetModel tweet = tweets.get(i % tweets.size());
+                final String retweet = RetweetFactory.makeRetweet(retweeter, tweet);
+                retweetLog.append(retweet);
+                out.write(retweet.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * @return The snapshot's tweets, parsed afresh as they're needed rather than
+     *         through the corpus's cache, so that retweeting a large part of the
+     *         corpus doesn't evict the tweets in use elsewhere (e.g. by the UI).
+     */
+    private static List<ImmutableTweetModel> uncached(final CorpusSnapshot snapshot) {
+        return new AbstractList<ImmutableTweetModel>() {
+            @Override
+            public ImmutableTweetModel get(final int i) {
+                try {
+                    return ImmutableTweetModel.wrap(Json.readTree(snapshot.getRawJson(i)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return snapshot.size();
+            }
+        };
+    }
+
+    private void handleRetweetLog(final HttpExchange exchange) throws IOException {
+        if (! requireMethod(exchange, "GET")) return;
+        final ListMultimap<String, String> params = parseQuery(exchange);
+        final Optional<String> source = first(params, "source");
+        final Optional<String> retweeter = first(params, "retweeter");
+        if (source.isPresent() == retweeter.isPresent()) {
+            sendText(exchange, 400, "Give either a source tweet's id_str or a retweeter");
+            return;
+        }
+        final boolean full = Boolean.parseBoolean(first(params, "full").orElse("false"));
+        final List<RetweetLog.Entry> entries = source.isPresent()
+            ? retweetLog.findBySource(source.get())
+            : retweetLog.findByRetweeter(retweeter.get());
+
+        exchange.getResponseHeaders().set("Content-Type", JSON_LINES);
+        exchange.sendResponseHeaders(200, 0); // chunked
+        try (OutputStream out = new BufferedOutputStream(exchange.getResponseBody())) {
+            for (final RetweetLog.Entry entry : entries) {
+                final ObjectNode summary = JsonNodeFactory.instance.objectNode();
+                summary.put("id_str", entry.getIdStr());
+                summary.put("retweeter", entry.getRetweeter());
+                summary.put("source_id_str", entry.getSourceIdStr());
+                summary.put("logged_at_ms", entry.getLoggedAt());
+                if (full) {
+                    summary.set("retweet", Json.readTree(retweetLog.readRetweet(entry)));
+                }
+                out.write(Json.WRITER.writeValueAsBytes(summary));
+                out.write('\n');
+            }
+        }
+    }
+
+    private void handleStats(final HttpExchange exchange) throws IOException {
+        final ObjectNode stats = JsonNodeFactory.instance.objectNode();
+        latencies.forEach((endpoint, histogram) -> {
+            final ObjectNode s = stats.putObject(endpoint);
+            s.put("count", histogram.count());
+            s.put("p50_ms", histogram.percentile(50) / 1000.0);
+            s.put("p90_ms", histogram.percentile(90) / 1000.0);
+            s.put("p99_ms", histogram.percentile(99) / 1000.0);
+            s.put("p99.9_ms", histogram.percentile(99.9) / 1000.0);
+            s.put("max_ms", histogram.max() / 1000.0);
+        });
+        final byte[] body = Json.PRETTY_WRITER.writeValueAsBytes(stats);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+
+    private static boolean requireMethod(final HttpExchange exchange, final String... methods) throws IOException {
+        for (final String method : methods) {
+            if (method.equalsIgnoreCase(exchange.getRequestMethod())) {
+                return true;
+            }
+        }
+        exchange.getResponseHeaders().set("Allow", String.join(", ", methods));
+        sendText(exchange, 405, "Use " + String.join(" or ", methods));
+        return false;
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String message) throws IOException {
+        final byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static ListMultimap<String, String> parseQuery(final HttpExchange exchange) throws UnsupportedEncodingException {
+        final ListMultimap<String, String> params = ArrayListMultimap.create();
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (final String pair : query.split("&")) {
+            final int eq = pair.indexOf('=');
+            final String name = eq < 0 ? pair : pair.substring(0, eq);
+            final String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return params;
+    }
+
+    private static Optional<String> first(final ListMultimap<String, String> params, final String name) {
+        final List<String> values = params.get(name);
+        return values.isEmpty() ? Optional.empty() : Optional.of(values.get(0));
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates large corpora of realistic-looking source tweets, for exercising
+ * the app at scale. The tweets have the fields of those in
+ * <code>data/random-10.json</code>: a full <code>user</code>, hashtags,
+ * mentions and links in <code>entities</code>, texts of varying length and,
+ * for some, a <code>retweeted_status</code> (occasionally itself a retweet).
+ *
+ * The output depends only on the seed and the settings, not on how many
+ * threads generate it: the corpus is made in fixed-size chunks, each from its
+ * own random stream, by a pool of workers, and written out in order.
+ */
+public class SyntheticCorpusGenerator {
+    public static final long DEFAULT_SEED = 1L;
+    public static final int DEFAULT_USERS = 10_000;
+    public static final double DEFAULT_RETWEET_RATIO = 0.3;
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int CHUNKS_PER_WORKER = 2;
+    private static final double NESTED_RETWEET_RATIO = 0.05;
+    private static final int MAX_DEPTH = 3;
+    private static final int MAX_TEXT_LENGTH = 140;
+    private static final long TWITTER_EPOCH = 1288834974657L; // the zero of snowflake IDs
+    private static final long START_MILLIS = 1471219200000L; // 2016-08-15, as in the sample
+    private static final long MILLIS_PER_TWEET = 50;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final DateTimeFormatter TWITTER_TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss Z yyyy", Locale.ENGLISH).withZone(ZoneOffset.UTC);
+
+    private static final String[] WORDS = {
+        "the", "a", "to", "of", "and", "is", "in", "on", "for", "that", "this", "with", "not", "just",
+        "now", "about", "all", "what", "how", "why", "who", "they", "we", "you", "our", "their",
+        "government", "minister", "policy", "election", "vote", "debate", "question", "answer",
+        "panel", "tonight", "budget", "climate", "tax", "jobs", "health", "education", "refugees",
+        "shameful", "great", "terrible", "honest", "again", "really", "never", "always", "still",
+        "country", "people", "future", "change", "plan", "truth", "media", "story", "news", "said",
+        "says", "think", "know", "want", "need", "make", "take", "watch", "listen", "agree", "wrong"
+    };
+    private static final String[] HASHTAGS = {
+        "qanda", "auspol", "insiders", "thedrum", "lateline", "politas", "climate", "ausvotes",
+        "budget2016", "nbn", "marriageequality", "racism", "refugees", "education", "health"
+    };
+    private static final String[] NAME_PARTS = {
+        "salted", "tables", "benign", "sawfly", "sweaty", "noggin",
+        "willow", "powder", "untorn", "rewire", "placid", "joists"
+    };
+    private static final String[] SOURCES = {
+        "<a href=\"http://twitter.com/download/iphone\" rel=\"nofollow\">Twitter for iPhone</a>",
+        "<a href=\"http://twitter.com/download/android\" rel=\"nofollow\">Twitter for Android</a>",
+        "<a href=\"http://twitter.com/#!/download/ipad\" rel=\"nofollow\">Twitter for iPad</a>",
+        "<a href=\"http://twitter.com\" rel=\"nofollow\">Twitter Web Client</a>"
+    };
+    private static final String[] LANGUAGES = {"en", "en", "en", "en", "en", "en", "en", "und", "es", "fr"};
+    private static final String[] COLOURS = {"C0DEED", "0084B4", "333333", "DDEEF6", "FFFFFF", "000000"};
+    private static final String BACKGROUND_IMAGE = "abs.twimg.com/images/themes/theme1/bg.png";
+    private static final String URL_PREFIX = "https://t.co/";
+    private static final String URL_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final long seed;
+    private final double retweetRatio;
+    private final User[] users;
+
+    /**
+     * @param seed Generators with the same seed and settings generate the same tweets.
+     * @param userCount How many distinct accounts to attribute tweets to.
+     * @param retweetRatio The proportion of tweets which are retweets.
+     */
+    public SyntheticCorpusGenerator(final long seed, final int userCount, final double retweetRatio) {
+        this.seed = seed;
+        this.retweetRatio = retweetRatio;
+        this.users = new User[Math.max(1, userCount)];
+        final SplittableRandom r = new SplittableRandom(mix(seed ^ 0x5EED5EEDL));
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User(i, r);
+        }
+    }
+
+    /**
+     * Writes tweets to a file, one JSON object per line.
+     *
+     * @param output Where to write the tweets, which is overwritten.
+     * @param count How many tweets to generate.
+     * @param threads How many threads to generate them with.
+     * @throws IOException If the tweets cannot be written.
+     */
+    public void generate(final Path output, final long count, final int threads) throws IOException {
+        final int workers = Math.max(1, threads);
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            final Thread t = new Thread(r, "corpus-generator-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        final Deque<Future<byte[]>> chunks = new ArrayDeque<>(); // in order, and bounded to limit memory
+        try (OutputStream out = Files.newOutputStream(output)) {
+            long next = 0;
+            while (next < count || ! chunks.isEmpty()) {
+                while (next < count && chunks.size() < workers * CHUNKS_PER_WORKER) {
+                    final long from = next;
+                    final long to = Math.min(count, from + CHUNK_SIZE);
+                    chunks.add(executor.submit(() -> generateChunk(from, to)));
+                    next = to;
+                }
+                out.write(chunks.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating " + output, e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof UncheckedIOException
+                ? ((UncheckedIOException) e.getCause()).getCause()
+                : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The JSON lines for tweets <code>from</code> (inclusive) to <code>to</code> (exclusive).
+     */
+    private byte[] generateChunk(final long from, final long to) {
+        final SplittableRandom r = new SplittableRandom(mix(seed + mix(from / CHUNK_SIZE)));
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) (to - from) * 2048);
+        try (JsonGenerator g = Json.FACTORY.createGenerator(buffer, JsonEncoding.UTF8)) {
+            g.setRootValueSeparator(null);
+            for (long i = from; i < to; i++) {
+                final long millis = START_MILLIS + i * MILLIS_PER_TWEET + r.nextLong(MILLIS_PER_TWEET);
+                writeTweet(g, makeTweet(r, i, millis, 0));
+                g.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private Tweet makeTweet(final SplittableRandom r, final long index, final long millis, final int depth) {
+        final Tweet tweet = new Tweet();
+        tweet.millis = millis;
+        tweet.id = ((millis - TWITTER_EPOCH) << 22) | (index & 0x3FFFFF);
+        tweet.user = users[pickUser(r)];
+        tweet.source = SOURCES[r.nextInt(SOURCES.length)];
+        tweet.lang = LANGUAGES[r.nextInt(LANGUAGES.length)];
+
+        final double retweetChance = depth == 0 ? retweetRatio : NESTED_RETWEET_RATIO;
+        if (depth < MAX_DEPTH && r.nextDouble() < retweetChance) {
+            final Tweet original = makeTweet(r, index, millis - 1 - r.nextLong(DAY_MILLIS), depth + 1);
+            original.retweetCount = 1 + r.nextInt(depth == 0 ? 500 : 50);
+            tweet.retweeted = original;
+            retweetText(tweet, original);
+        } else {
+            originalText(r, tweet);
+        }
+        return tweet;
+    }
+
+    /**
+     * Picks an account, favouring a few prolific ones as real corpora do.
+     */
+    private int pickUser(final SplittableRandom r) {
+        final double x = r.nextDouble();
+        return (int) (x * x * x * users.length);
+    }
+
+    private void originalText(final SplittableRandom r, final Tweet tweet) {
+        final int targetLength = 10 + r.nextInt(MAX_TEXT_LENGTH - 10 + 1);
+        final StringBuilder text = new StringBuilder(targetLength);
+        final boolean withUrl = r.nextInt(10) == 0;
+        final int limit = withUrl ? targetLength - 24 : targetLength;
+        do {
+            final String token;
+            final int kind = r.nextInt(12);
+            if (kind == 0) {
+                token = "#" + HASHTAGS[(int) (Math.pow(r.nextDouble(), 2) * HASHTAGS.length)];
+            } else if (kind == 1) {
+                token = "@" + users[pickUser(r)].screenName;
+            } else {
+                token = WORDS[r.nextInt(WORDS.length)];
+            }
+            final int start = text.length() == 0 ? 0 : text.length() + 1;
+            if (start + token.length() > limit && text.length() > 0) {
+                break;
+            }
+            if (start > 0) {
+                text.append(' ');
+            }
+            text.append(token);
+            if (token.startsWith("#")) {
+                tweet.hashtags.add(new Entity(token.substring(1), start, start + token.length()));
+            } else if (token.startsWith("@")) {
+                tweet.mentions.add(new Entity(token.substring(1), start, start + token.length()));
+            }
+        } while (text.length() < limit);
+        if (withUrl) {
+            final StringBuilder url = new StringBuilder(URL_PREFIX);
+            for (int i = 0; i < 10; i++) {
+                url.append(URL_CHARS.charAt(r.nextInt(URL_CHARS.length())));
+            }
+            final int start = text.length() + 1;
+            text.append(' ').append(url);
+            tweet.urls.add(new Entity(url.toString(), start, start + url.length()));
+        }
+        tweet.text = text.toString();
+    }
+
+    /**
+     * Makes a retweet's text and entities from its original's, as Twitter does.
+     */
+    private static void retweetText(final Tweet tweet, final Tweet original) {
+        final String prefix = "RT @" + original.user.screenName + ": ";
+        final String full = prefix + original.text;
+        final boolean cut = full.length() > MAX_TEXT_LENGTH;
+        tweet.text = cut ? full.substring(0, MAX_TEXT_LENGTH - 1) + RetweetFactory.ELLIPSIS : full;
+        final int visible = cut ? MAX_TEXT_LENGTH - 1 : full.length();
+        tweet.mentions.add(new Entity(original.user.screenName, 3, prefix.length() - 2));
+        shift(original.mentions, tweet.mentions, prefix.length(), visible);
+        shift(original.hashtags, tweet.hashtags, prefix.length(), visible);
+        shift(original.urls, tweet.urls, prefix.length(), visible);
+    }
+
+    private static void shift(final List<Entity> from, final List<Entity> to, final int offset, final int visible) {
+        for (final Entity e : from) {
+            if (e.end + offset <= visible) {
+                to.add(new Entity(e.text, e.start + offset, e.end + offset));
+            }
+        }
+    }
+
+    private void writeTweet(final JsonGenerator g, final Tweet tweet) throws IOException {
+        g.writeStartObject();
+        g.writeNullField("in_reply_to_status_id_str");
+        g.writeNullField("in_reply_to_status_id");
+        g.writeStringField("created_at", TWITTER_TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(tweet.millis)));
+        g.writeNullField("in_reply_to_user_id_str");
+        g.writeStringField("source", tweet.source);
+        if (tweet.retweeted != null) {
+            g.writeFieldName("retweeted_status");
+            writeTweet(g, tweet.retweeted);
+        }
+        g.writeNumberField("retweet_count", tweet.retweetCount);
+        g.writeBooleanField("retweeted", false);
+        g.writeNullField("geo");
+        g.writeStringField("filter_level", "low");
+        g.writeNullField("in_reply_to_screen_name");
+        g.writeBooleanField("is_quote_status", false);
+        g.writeStringField("id_str", Long.toString(tweet.id));
+        g.writeNullField("in_reply_to_user_id");
+        g.writeNumberField("favorite_count", tweet.retweetCount / 2);
+        g.writeNumberField("id", tweet.id);
+        g.writeStringField("text", tweet.text);
+        g.writeNullField("place");
+        g.writeStringField("lang", tweet.lang);
+        g.writeBooleanField("favorited", false);
+        g.writeNullField("coordinates");
+        g.writeBooleanField("truncated", false);
+        g.writeStringField("timestamp_ms", Long.toString(tweet.millis));
+        writeEntities(g, tweet);
+        g.writeNullField("contributors");
+        g.writeFieldName("user");
+        writeUser(g, tweet.user);
+        g.writeEndObject();
+    }
+
+    private void writeEntities(final JsonGenerator g, final Tweet tweet) throws IOException {
+        g.writeObjectFieldStart("entities");
+        g.writeArrayFieldStart("urls");
+        for (final Entity url : tweet.urls) {
+            g.writeStartObject();
+            g.writeStringField("display_url", "example.com/" + url.text.substring(URL_PREFIX.length()));
+            writeIndices(g, url);
+            g.writeStringField("expanded_url", "https://example.com/" + url.text.substring(URL_PREFIX.length()));
+            g.writeStringField("url", url.text);
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+        g.writeArrayFieldStart("hashtags");
+        for (final Entity hashtag : tweet.hashtags) {
+            g.writeStartObject();
+            writeIndices(g, hashtag);
+            g.writeStringField("text", hashtag.text);
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+        g.writeArrayFieldStart("user_mentions");
+        for (final Entity mention : tweet.mentions) {
+            final User user = userNamed(mention.text);
+            g.writeStartObject();
+            writeIndices(g, mention);
+            g.writeStringField("screen_name", user.screenName);
+            g.writeStringField("id_str", user.idStr);
+            g.writeStringField("name", user.name);
+            g.writeNumberField("id", user.id);
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+        g.writeArrayFieldStart("symbols");
+        g.writeEndArray();
+        g.writeEndObject();
+    }
+
+    private static void writeIndices(final JsonGenerator g, final Entity entity) throws IOException {
+        g.writeArrayFieldStart("indices");
+        g.writeNumber(entity.start);
+        g.writeNumber(entity.end);
+        g.writeEndArray();
+    }
+
+    private static void writeUser(final JsonGenerator g, final User user) throws IOException {
+        g.writeStartObject();
+        g.writeNullField("utc_offset");
+        g.writeNumberField("friends_count", user.friends);
+        g.writeStringField("profile_image_url_https", "https://" + user.image);
+        g.writeNumberField("listed_count", user.listed);
+        g.writeStringField("profile_background_image_url", "http://" + BACKGROUND_IMAGE);
+        g.writeBooleanField("default_profile_image", false);
+        g.writeNumberField("favourites_count", user.favourites);
+        g.writeStringField("description", user.description);
+        g.writeStringField("created_at", user.createdAt);
+        g.writeBooleanField("is_translator", false);
+        g.writeStringField("profile_background_image_url_https", "https://" + BACKGROUND_IMAGE);
+        g.writeBooleanField("protected", false);
+        g.writeStringField("screen_name", user.screenName);
+        g.writeStringField("id_str", user.idStr);
+        g.writeStringField("profile_link_color", user.linkColour);
+        g.writeNumberField("id", user.id);
+        g.writeBooleanField("geo_enabled", false);
+        g.writeStringField("profile_background_color", "C0DEED");
+        g.writeStringField("lang", "en");
+        g.writeStringField("profile_sidebar_border_color", "C0DEED");
+        g.writeStringField("profile_text_color", "333333");
+        g.writeBooleanField("verified", user.verified);
+        g.writeStringField("profile_image_url", "http://" + user.image);
+        g.writeNullField("time_zone");
+        g.writeNullField("url");
+        g.writeBooleanField("contributors_enabled", false);
+        g.writeBooleanField("profile_background_tile", false);
+        g.writeStringField("profile_banner_url", user.banner);
+        g.writeNumberField("statuses_count", user.statuses);
+        g.writeNullField("follow_request_sent");
+        g.writeNumberField("followers_count", user.followers);
+        g.writeBooleanField("profile_use_background_image", true);
+        g.writeBooleanField("default_profile", true);
+        g.writeNullField("following");
+        g.writeStringField("name", user.name);
+        g.writeNullField("location");
+        g.writeStringField("profile_sidebar_fill_color", "DDEEF6");
+        g.writeNullField("notifications");
+        g.writeEndObject();
+    }
+
+    /**
+     * @return The account with a screen name made by {@link User}, which encodes its index.
+     */
+    private User userNamed(final String screenName) {
+        return users[Integer.parseInt(screenName.substring(screenName.lastIndexOf('_') + 1))];
+    }
+
+    /**
+     * Scrambles a number, so that neighbouring seeds start unrelated random streams.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class User {
+        final long id;
+        final String idStr;
+        final String screenName;
+        final String name;
+        final String description;
+        final String linkColour;
+        final String createdAt;
+        final String image;
+        final String banner;
+        final int followers;
+        final int friends;
+        final int listed;
+        final int favourites;
+        final int statuses;
+        final boolean verified;
+
+        User(final int index, final SplittableRandom r) {
+            final String first = NAME_PARTS[r.nextInt(NAME_PARTS.length)];
+            final String second = NAME_PARTS[r.nextInt(NAME_PARTS.length)];
+            this.id = 10_000_000L + index * 7919L + r.nextInt(7919);
+            this.idStr = Long.toString(id);
+            this.screenName = first + second.charAt(0) + "_" + index; // at most 15 characters for 10M users
+            this.name = Character.toUpperCase(first.charAt(0)) + first.substring(1) + " "
+                + Character.toUpperCase(second.charAt(0)) + second.substring(1);
+            final StringBuilder description = new StringBuilder();
+            for (int i = 3 + r.nextInt(12); i > 0; i--) {
+                description.append(WORDS[r.nextInt(WORDS.length)]).append(i > 1 ? " " : "");
+            }
+            this.description = description.toString();
+            this.linkColour = COLOURS[r.nextInt(COLOURS.length)];
+            this.createdAt = TWITTER_TIMESTAMP_FORMAT.format(
+                Instant.ofEpochMilli(START_MILLIS - DAY_MILLIS * (1 + r.nextInt(3000)))
+            );
+            this.image = "pbs.twimg.com/profile_images/" + id + "/avatar_normal.jpeg";
+            this.banner = "https://pbs.twimg.com/profile_banners/" + id + "/banner";
+            this.followers = (int) Math.pow(10, 1 + r.nextDouble() * 4);
+            this.friends = (int) Math.pow(10, 1 + r.nextDouble() * 3);
+            this.listed = followers / 20;
+            this.favourites = r.nextInt(20_000);
+            this.statuses = 10 + r.nextInt(50_000);
+            this.verified = r.nextInt(100) == 0;
+        }
+    }
+
+    private static final class Tweet {
+        long id;
+        long millis;
+        User user;
+        String source;
+        String lang;
+        String text;
+        int retweetCount;
+        Tweet retweeted;
+        final List<Entity> hashtags = new ArrayList<>(2);
+        final List<Entity> mentions = new ArrayList<>(2);
+        final List<Entity> urls = new ArrayList<>(1);
+    }
+
+    /**
+     * A hashtag, mention or link, and where it appears in a tweet's text.
+     */
+    private static final class Entity {
+        final String text;
+        final int start;
+        final int end;
+
+        Entity(final String text, final int start, final int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
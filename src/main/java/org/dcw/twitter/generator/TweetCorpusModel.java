@@ -15,99 +15,750 @@
  */
 package org.dcw.twitter.generator;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Lists;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
 
+/**
+ * The tweets available for retweeting, backed by a file of JSON tweets (one per line).
+ *
+ * Each tweet is stored against a stable key, allocated in insertion order, and
+ * callers should address tweets by key rather than by position, so that sorting,
+ * filtering or concurrent changes cannot make them act on the wrong tweet.
+ * The keys are indexed by an immutable, chunked {@link CorpusIndex}, so a key
+ * is found without searching the whole corpus, and a removal only compacts
+ * one chunk rather than shifting every later tweet along. Writers are
+ * serialised and publish a new version of the index with each change, while
+ * readers never block: a {@link CorpusSnapshot} is just the version current
+ * when it is taken.
+ *
+ * Tweets are stored as their raw UTF-8 JSON, which is far more compact than a
+ * {@link JsonNode} tree, and are parsed on demand. The JSON lives in a
+ * {@link TweetStore}, either on the heap or, for corpora larger than the heap,
+ * in off-heap memory. A size-bounded cache of parsed tweets sits in front of
+ * the store to keep the working set fast to access; see {@link #getCacheStats()}
+ * when tuning its size.
+ */
 public class TweetCorpusModel {
-    private static ObjectMapper JSON = new ObjectMapper();
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final int LOAD_BATCH_SIZE = 1_000;
+    private static final int TAIL_FINGERPRINT_LENGTH = 64;
 
-    private final List<TweetModel> tweets = Lists.newArrayList();
+    private volatile CorpusIndex index; // replaced, never changed, by writers
+    private final Cache<Long, Parsed> parsed;
+    private final IdIndex idIndex = new IdIndex(); // only changed by writers
+    private long nextKey = 0; // only touched by writers
+    private final Object writeLock = new Object();
     private String file;
+    private volatile boolean loaded = false;
+    private volatile boolean reloadNeeded = false; // the file was rewritten, and hasn't been reloaded since
+    private final Object fileLock = new Object();
+    private long fileOffset;
+    private byte[] fileTail = new byte[0];
 
     public TweetCorpusModel(String tweetsFile) {
+        this(tweetsFile, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param tweetsFile The file of tweets to load and save to.
+     * @param cacheSize The maximum number of parsed tweets to keep in memory.
+     */
+    public TweetCorpusModel(String tweetsFile, int cacheSize) {
+        this(tweetsFile, cacheSize, new HeapTweetStore());
+    }
+
+    /**
+     * @param tweetsFile The file of tweets to load and save to.
+     * @param cacheSize The maximum number of parsed tweets to keep in memory.
+     * @param store Where to keep the tweets' raw JSON.
+     */
+    public TweetCorpusModel(String tweetsFile, int cacheSize, TweetStore store) {
         this.file = tweetsFile;
-        loadTweets(tweetsFile);
+        this.index = CorpusIndex.empty(0L, store, nextKey);
+        this.parsed = CacheBuilder.newBuilder()
+            .maximumSize(cacheSize)
+            .recordStats()
+            .build();
     }
 
-    private void loadTweets(String file) {
-        try {
-            System.out.println("Reading tweets from " + file);
-            tweets.addAll(Files.readAllLines(Paths.get(file))
-                .stream()
-                .filter(s -> !s.trim().isEmpty())
-                .flatMap(s -> {
-                    try {
-                        return Stream.of(new TweetModel(JSON.readValue(s, JsonNode.class)));
-                    } catch (IOException e) {
-                        System.err.println(
-                            "Cannot parse JSON from line starting: " +
-                            s.substring(0, 50)
-                        );
-                        return Stream.empty();
-                    }
-                })
-                .collect(Collectors.toList())
+    /**
+     * Notified as batches of tweets are loaded from the tweets file.
+     */
+    public interface LoadListener {
+        /**
+         * @param keys The keys of the tweets just loaded, in file order.
+         * @param bytesRead How far through the file loading has reached.
+         * @param totalBytes The size of the file when loading started.
+         */
+        void tweetsLoaded(List<Long> keys, long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Loads the whole tweets file, blocking until it has been read.
+     */
+    public void loadTweets() {
+        loadTweets(LOAD_BATCH_SIZE, (keys, bytesRead, totalBytes) -> {}, () -> false);
+    }
+
+    /**
+     * Loads the tweets file, publishing the tweets to the corpus in batches as
+     * they are parsed, so the corpus can be used while it is still loading.
+     * Until loading completes, {@link #saveModel()} refuses to overwrite the
+     * file, as doing so would lose the tweets not yet read.
+     *
+     * @param batchSize The number of tweets to publish at a time.
+     * @param listener Notified after each batch is published.
+     * @param cancelled Polled between tweets, and stops loading when it returns <code>true</code>.
+     * @return <code>true</code> if the whole file was read.
+     */
+    public boolean loadTweets(
+        final int batchSize,
+        final LoadListener listener,
+        final BooleanSupplier cancelled
+    ) {
+        final Path path = Paths.get(file);
+        System.out.println("Reading tweets from " + file);
+        synchronized (fileLock) {
+            if (! Files.exists(path)) {
+                System.err.println("Failed to read tweets from " + file + ": no such file");
+                rememberFileState(path, 0L);
+                loaded = true; // nothing to lose by saving
+                return true;
+            }
+            try (InputStream in = Files.newInputStream(path)) {
+                final long totalBytes = Files.size(path);
+                final long end = readTweets(in, 0L, true, totalBytes, batchSize, listener, cancelled);
+                if (cancelled.getAsBoolean()) {
+                    System.out.println("Stopped reading tweets from " + file + " after " + size() + " tweets");
+                    return false;
+                }
+                rememberFileState(path, end);
+                loaded = true;
+                return true;
+
+            } catch (IOException e) {
+                System.err.println("Failed to read tweets from " + file + ": " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Reloads the whole tweets file, blocking until it has been read.
+     *
+     * @return <code>true</code> if the whole file was read.
+     */
+    public boolean reloadTweets() {
+        return reloadTweets(LOAD_BATCH_SIZE, (keys, bytesRead, totalBytes) -> {}, () -> false);
+    }
+
+    /**
+     * Clears the corpus and loads the tweets file again, as
+     * {@link #loadTweets(int, LoadListener, BooleanSupplier)} does, e.g. once
+     * {@link #catchUp(LoadListener)} has found it rewritten. Until loading
+     * completes, {@link #saveModel()} refuses to overwrite the file. If the
+     * file cannot be read, {@link #catchUp(LoadListener)} goes on reporting it
+     * as rewritten, so the reload can be tried again.
+     *
+     * @return <code>true</code> if the whole file was read.
+     */
+    public boolean reloadTweets(
+        final int batchSize,
+        final LoadListener listener,
+        final BooleanSupplier cancelled
+    ) {
+        synchronized (fileLock) {
+            loaded = false;
+            reloadNeeded = false;
+            clear();
+            final boolean read = loadTweets(batchSize, listener, cancelled);
+            if (! read && ! cancelled.getAsBoolean()) {
+                reloadNeeded = true;
+            }
+            return read;
+        }
+    }
+
+    /** The ways the tweets file may have changed since it was last read or written. */
+    public enum FileChange { NONE, APPENDED, REWRITTEN }
+
+    /**
+     * Catches up with changes other programs have made to the tweets file since
+     * it was last read or written. Complete lines appended since then are parsed
+     * and added to the corpus, and a partially written last line is left for next
+     * time. If the file has been truncated or rewritten, the corpus is left as it
+     * is, for the caller to reload with {@link #reloadTweets(int, LoadListener, BooleanSupplier)}
+     * (and until then, the file will not be saved over).
+     *
+     * @param listener Notified of the keys of any tweets added.
+     * @return How the file had changed.
+     */
+    public FileChange catchUp(final LoadListener listener) {
+        if (reloadNeeded) {
+            return FileChange.REWRITTEN;
+        }
+        if (! loaded) {
+            return FileChange.NONE; // still loading, or cancelled
+        }
+        final Path path = Paths.get(file);
+        synchronized (fileLock) {
+            try {
+                if (isRewritten(path)) {
+                    System.out.println("Tweets file " + file + " has been rewritten, so it needs reloading");
+                    reloadNeeded = true;
+                    return FileChange.REWRITTEN;
+                }
+                return readAppended(path, listener) ? FileChange.APPENDED : FileChange.NONE;
+            } catch (IOException e) {
+                System.err.println("Failed to catch up with changes to " + file + ": " + e.getMessage());
+                return FileChange.NONE;
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the file is shorter than when it was last
+     *         read or written, or the bytes before that point have changed.
+     */
+    private boolean isRewritten(final Path path) throws IOException {
+        final long size = Files.exists(path) ? Files.size(path) : 0L;
+        return size < fileOffset || ! Arrays.equals(tailOf(path, fileOffset), fileTail);
+    }
+
+    /**
+     * Adds the complete lines appended to the file since it was last read or
+     * written to the corpus, leaving any partially written last line for next time.
+     *
+     * @return <code>true</code> if any lines were read.
+     */
+    private boolean readAppended(final Path path, final LoadListener listener) throws IOException {
+        final long size = Files.exists(path) ? Files.size(path) : 0L;
+        if (size == fileOffset) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.position(fileOffset);
+            final long end = readTweets(
+                Channels.newInputStream(channel), fileOffset, false,
+                size, LOAD_BATCH_SIZE, listener, () -> false
             );
+            if (end == fileOffset) {
+                return false; // only a partial line so far
+            }
+            System.out.println("Read " + (end - fileOffset) + " appended bytes from " + file);
+            rememberFileState(path, end);
+            return true;
+        }
+    }
 
+    /**
+     * Parses lines of tweets from <code>in</code>, publishing them to the corpus
+     * in batches.
+     *
+     * @return The offset in the file just past the last line consumed.
+     */
+    private long readTweets(
+        final InputStream in,
+        final long startOffset,
+        final boolean includeUnterminated,
+        final long totalBytes,
+        final int batchSize,
+        final LoadListener listener,
+        final BooleanSupplier cancelled
+    ) throws IOException {
+        final List<byte[]> batchRaw = new ArrayList<>(batchSize);
+        final List<String> batchIds = new ArrayList<>(batchSize);
+        final long[] bytesRead = {startOffset};
+        final long end = startOffset + readLines(in, includeUnterminated, (raw, offset, terminated) -> {
+            if (cancelled.getAsBoolean()) {
+                return false;
+            }
+            try {
+                // only the ID is needed for now, so there's no need to build the tree
+                batchIds.add(scanId(raw));
+                batchRaw.add(raw);
+            } catch (IOException e) {
+                if (! terminated) {
+                    return false; // probably still being written, so leave it to be read once finished
+                }
+                final String s = new String(raw, StandardCharsets.UTF_8);
+                System.err.println(
+                    "Cannot parse JSON from line starting: " +
+                    s.substring(0, Math.min(50, s.length()))
+                );
+            }
+            bytesRead[0] = startOffset + offset;
+            if (batchRaw.size() >= batchSize) {
+                publishBatch(batchRaw, batchIds, listener, bytesRead[0], totalBytes);
+            }
+            return true;
+        });
+        publishBatch(batchRaw, batchIds, listener, bytesRead[0], totalBytes);
+        return end;
+    }
+
+    /**
+     * Records how much of the file has been read, and the bytes just before
+     * that point, so that later appends can be told apart from rewrites.
+     */
+    private void rememberFileState(final Path path, final long offset) {
+        fileOffset = offset;
+        try {
+            fileTail = tailOf(path, offset);
         } catch (IOException e) {
-            System.err.println("Failed to read tweets from " + file + ": " + e.getMessage());
+            fileTail = new byte[0];
         }
     }
 
+    private static byte[] tailOf(final Path path, final long offset) throws IOException {
+        if (! Files.exists(path)) {
+            return new byte[0];
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final int length = (int) Math.min(TAIL_FINGERPRINT_LENGTH, offset);
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && channel.read(buffer, offset - length + buffer.position()) > 0) {
+                // keep reading
+            }
+            return buffer.array();
+        }
+    }
+
+    private void clear() {
+        write(() -> {
+            idIndex.clear();
+            parsed.invalidateAll();
+            // old snapshots keep the old store alive
+            index = CorpusIndex.empty(index.getVersion() + 1, index.getStore().emptyCopy(), nextKey);
+        });
+    }
+
+    private void publishBatch(
+        final List<byte[]> batchRaw,
+        final List<String> batchIds,
+        final LoadListener listener,
+        final long bytesRead,
+        final long totalBytes
+    ) {
+        if (batchRaw.isEmpty()) {
+            return;
+        }
+        final List<Long> keys = new ArrayList<>(batchRaw.size());
+        write(() -> {
+            for (int i = 0; i < batchRaw.size(); i++) {
+                keys.add(insert(batchRaw.get(i), batchIds.get(i)));
+            }
+        });
+        batchRaw.clear();
+        batchIds.clear();
+        listener.tweetsLoaded(keys, bytesRead, totalBytes);
+    }
+
+    private interface LineHandler {
+        /**
+         * @param line A non-blank line, with surrounding whitespace removed.
+         * @param endOffset The number of bytes consumed, including the line's terminator.
+         * @param terminated <code>false</code> if this is a final line with no terminator.
+         * @return <code>false</code> to stop reading, without consuming this line.
+         */
+        boolean line(byte[] line, long endOffset, boolean terminated) throws IOException;
+    }
+
+    /**
+     * Reads newline-terminated lines of raw bytes, avoiding the cost of decoding
+     * and re-encoding each one, and tracking exactly how far through the input
+     * each line ends. A final line with no terminator is only passed on if
+     * <code>includeUnterminated</code> is set, as it may still be being written,
+     * and is only consumed if the handler takes it.
+     *
+     * @return The number of bytes consumed.
+     */
+    private static long readLines(
+        final InputStream input,
+        final boolean includeUnterminated,
+        final LineHandler handler
+    ) throws IOException {
+        final InputStream in = new BufferedInputStream(input, 64 * 1024);
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(4096);
+        long offset = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            offset++;
+            if (b == '\n') {
+                final byte[] trimmed = trim(line.toByteArray());
+                final int length = line.size() + 1;
+                line.reset();
+                if (trimmed.length > 0 && ! handler.line(trimmed, offset, true)) {
+                    return offset - length;
+                }
+            } else {
+                line.write(b);
+            }
+        }
+        if (! includeUnterminated) {
+            return offset - line.size();
+        }
+        final byte[] trimmed = trim(line.toByteArray());
+        if (trimmed.length > 0 && ! handler.line(trimmed, offset, false)) {
+            return offset - line.size();
+        }
+        return offset;
+    }
+
+    private static byte[] trim(final byte[] bytes) {
+        int start = 0;
+        int end = bytes.length;
+        while (start < end && bytes[start] <= ' ') start++;
+        while (end > start && bytes[end - 1] <= ' ') end--;
+        return start == 0 && end == bytes.length ? bytes : Arrays.copyOfRange(bytes, start, end);
+    }
+
     public boolean saveModel() {
+        return saveModel((keys, bytesRead, totalBytes) -> {});
+    }
+
+    /**
+     * Writes the corpus back to the tweets file. Tweets other programs have
+     * appended to the file since it was last read are added to the corpus
+     * first, so they are written back rather than lost, but if the file has
+     * been rewritten it is left alone, to be reloaded by {@link #catchUp(LoadListener)}.
+     *
+     * @param listener Notified of the keys of any appended tweets added.
+     * @return <code>true</code> if the file was written.
+     */
+    public boolean saveModel(final LoadListener listener) {
+        if (! loaded) {
+            System.err.println("Not writing to " + file + " as it has not been fully loaded");
+            return false;
+        }
         System.out.println("Writing to " + file);
-        final String content = tweets.stream().map(model -> {
+        final Path path = Paths.get(file);
+        synchronized (fileLock) {
             try {
-                return JSON.writeValueAsString(model.getRoot()) + "\n";
-            } catch (JsonProcessingException e) {
-                System.err.println("Failed to convert JsonNode tree to String: " + e.getMessage());
-                return ""; // avoids blank lines
+                if (isRewritten(path)) {
+                    System.err.println("Not writing to " + file + " as another program has rewritten it");
+                    return false;
+                }
+                readAppended(path, listener);
+            } catch (IOException e) {
+                System.err.println("Not writing to " + file + " as its changes cannot be read: " + e.getMessage());
+                return false;
             }
-        }).collect(Collectors.joining());
+            final CorpusSnapshot snapshot = snapshot();
+            long written = 0;
 
-        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
-            out.write(content);
-        } catch (IOException e) {
-            System.err.println("Error writing tweets to " + file + ": " + e.getMessage());
-            e.printStackTrace();
-            return false;
+            // the raw JSON is written back as is, with no need to re-serialise it
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+                for (int i = 0; i < snapshot.size(); i++) {
+                    final byte[] raw = snapshot.getRawJson(i);
+                    out.write(raw);
+                    out.write('\n');
+                    written += raw.length + 1;
+                }
+            } catch (IOException e) {
+                System.err.println("Error writing tweets to " + file + ": " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+            rememberFileState(path, written); // so our own changes aren't mistaken for a rewrite
         }
         return true;
     }
 
-    public void addTweet(final String tweetJson) throws IOException {
-        tweets.add(new TweetModel(JSON.readValue(tweetJson, JsonNode.class)));
+    /**
+     * Parses and adds a tweet to the end of the corpus.
+     *
+     * @param tweetJson The tweet's JSON.
+     * @return The new tweet's key.
+     * @throws IOException If the JSON cannot be parsed, or there is none.
+     */
+    public long addTweet(final String tweetJson) throws IOException {
+        final JsonNode root = Json.readTree(tweetJson);
+        if (root == null || root.isMissingNode()) {
+            throw new IOException("No JSON to add as a tweet");
+        }
+        final byte[] raw = Json.WRITER.writeValueAsBytes(root); // normalised onto one line
+        final long[] key = new long[1];
+        write(() -> key[0] = insert(raw, idOf(root)));
+        return key[0];
     }
 
-    public void removeTweet(final int i) {
-        tweets.remove(i);
+    /**
+     * Removes a tweet.
+     *
+     * @param key The tweet's key.
+     * @return <code>true</code> if the tweet was present.
+     */
+    public boolean removeByKey(final long key) {
+        final boolean[] removed = new boolean[1];
+        write(() -> {
+            final CorpusIndex current = index;
+            final long ref = current.refOf(key);
+            if (ref != CorpusIndex.NO_REF) {
+                unindex(current, key);
+                index = current.remove(key);
+                parsed.invalidate(key);
+                removed[0] = true;
+            }
+        });
+        return removed[0];
+    }
+
+    /**
+     * Replaces a tweet with an updated version, e.g. one produced by
+     * {@link ImmutableTweetModel#with(String, Object)}, keeping its key.
+     *
+     * @param key The key of the tweet to replace.
+     * @param tweet The replacement tweet.
+     * @return <code>true</code> if there was a tweet to replace.
+     * @throws JsonProcessingException If the replacement cannot be serialised.
+     */
+    public boolean replaceByKey(final long key, final ImmutableTweetModel tweet) throws JsonProcessingException {
+        final byte[] raw = Json.WRITER.writeValueAsBytes(tweet.getRoot());
+        final boolean[] replaced = new boolean[1];
+        write(() -> {
+            final CorpusIndex current = index;
+            final long old = current.refOf(key);
+            if (old != CorpusIndex.NO_REF) {
+                final TweetStore store = current.getStore();
+                unindex(current, key);
+                final long ref = store.append(raw);
+                final String idStr = idOf(tweet.getRoot());
+                final long id = IdIndex.parse(idStr);
+                index = current.replace(key, ref, id);
+                parsed.put(key, new Parsed(store, ref, tweet));
+                idIndex.put(id, idStr, key);
+                replaced[0] = true;
+            }
+        });
+        return replaced[0];
     }
 
-    public String getScreenName(final int i) {
-        return tweets.get(i).get("user.screen_name").asText("<empty>");
+    /**
+     * @param key A tweet's key.
+     * @return The tweet, or <code>null</code> if there is no tweet with that key.
+     */
+    public ImmutableTweetModel getByKey(final long key) {
+        final CorpusIndex current = index;
+        final long ref = current.refOf(key);
+        return ref == CorpusIndex.NO_REF ? null : decode(current.getStore(), key, ref);
     }
 
-    public String getText(final int i) {
-        final TweetModel t = tweets.get(i);
+    /**
+     * @return Hit, miss and eviction counts for the cache of parsed tweets.
+     */
+    public CacheStats getCacheStats() {
+        return parsed.stats();
+    }
+
+    /**
+     * @return A live view of the memory used to hold the corpus, suitable for
+     *         registering with JMX.
+     */
+    public TweetStoreMXBean getStoreStatistics() {
+        return new TweetStoreMXBean() {
+            @Override
+            public boolean isOffHeap() {
+                return index.getStore().isOffHeap();
+            }
+
+            @Override
+            public long getTweetCount() {
+                return size();
+            }
+
+            @Override
+            public long getTweetsStored() {
+                return index.getStore().getTweetsStored();
+            }
+
+            @Override
+            public long getBytesStored() {
+                return index.getStore().getBytesStored();
+            }
+
+            @Override
+            public long getBytesReserved() {
+                return index.getStore().getBytesReserved();
+            }
+
+            @Override
+            public long getParsedCacheSize() {
+                return parsed.size();
+            }
+
+            @Override
+            public double getParsedCacheHitRate() {
+                return parsed.stats().hitRate();
+            }
+
+            @Override
+            public long getParsedCacheEvictions() {
+                return parsed.stats().evictionCount();
+            }
+        };
+    }
+
+    /**
+     * Parses a tweet's raw JSON, or fetches it from the cache if it has been
+     * parsed recently. Cache entries remember which stored JSON they were parsed
+     * from, so a tweet replaced while it was being parsed is never served stale.
+     */
+    private ImmutableTweetModel decode(final TweetStore from, final long key, final long ref) {
+        try {
+            Parsed p = parsed.get(key, () -> new Parsed(from, ref, parse(from.read(ref))));
+            if (p.store != from || p.ref != ref) {
+                p = new Parsed(from, ref, parse(from.read(ref)));
+                parsed.put(key, p);
+            }
+            return p.tweet;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cannot parse stored tweet " + key, e.getCause());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot parse stored tweet " + key, e);
+        }
+    }
+
+    private static ImmutableTweetModel parse(final byte[] raw) throws IOException {
+        return ImmutableTweetModel.wrap(Json.readTree(raw));
+    }
+
+    /**
+     * Looks up a tweet's key by its Twitter ID.
+     *
+     * @param idStr The tweet's <code>id_str</code>.
+     * @return The key of the tweet with that ID, if it is present, or of the
+     *         newest one if several are.
+     */
+    public Optional<Long> findKeyById(final String idStr) {
+        final long key = idIndex.get(idStr);
+        return key == IdIndex.NO_KEY ? Optional.empty() : Optional.of(key);
+    }
+
+    private long insert(final byte[] raw, final String idStr) {
+        final long key = nextKey++;
+        final CorpusIndex current = index;
+        final long id = IdIndex.parse(idStr);
+        index = current.append(key, current.getStore().append(raw), id);
+        idIndex.put(id, idStr, key);
+        return key;
+    }
+
+    /**
+     * Removes a tweet from the index of IDs, using the ID kept alongside it
+     * in the index of keys rather than parsing the tweet, unless it isn't a
+     * number, which Twitter's IDs always are.
+     */
+    private void unindex(final CorpusIndex current, final long key) {
+        final long id = current.idOf(key);
+        final String idStr = id == IdIndex.NO_ID
+            ? idOf(decode(current.getStore(), key, current.refOf(key)).getRoot())
+            : null;
+        idIndex.remove(id, idStr, key);
+    }
+
+    private static String idOf(final JsonNode root) {
+        return root.path("id_str").asText("");
+    }
+
+    /**
+     * Streams through a tweet's JSON, picking out its <code>id_str</code>
+     * without building a tree, and checking the rest is well formed.
+     *
+     * @return The tweet's ID, or an empty string if it has none.
+     * @throws IOException If the JSON is malformed.
+     */
+    private static String scanId(final byte[] raw) throws IOException {
+        String idStr = "";
+        try (JsonParser p = Json.FACTORY.createParser(raw)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                return idStr;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.getCurrentName();
+                p.nextToken();
+                if ("id_str".equals(field) && p.currentToken().isScalarValue()) {
+                    idStr = p.getValueAsString("");
+                } else {
+                    p.skipChildren();
+                }
+            }
+            if (p.currentToken() != JsonToken.END_OBJECT) {
+                throw new JsonParseException(p, "Unexpected end of tweet");
+            }
+        }
+        return idStr;
+    }
+
+    /**
+     * Returns a consistent view of the corpus, which will never change. This
+     * never blocks, and takes the same time however big the corpus is.
+     *
+     * @return The current version of the corpus.
+     */
+    public CorpusSnapshot snapshot() {
+        return new CorpusSnapshot(index, this::decode);
+    }
+
+    private void write(final Runnable change) {
+        synchronized (writeLock) {
+            change.run();
+        }
+    }
+
+    public static String getScreenName(final ImmutableTweetModel t) {
+        return t.get("user.screen_name").asText("<empty>");
+    }
+
+    public static String getText(final ImmutableTweetModel t) {
         return t.get("text").asText(t.get("full_text").asText(""));
     }
 
+    public String getFile() {
+        return file;
+    }
+
     public int size() {
-        return tweets.size();
+        return snapshot().size();
     }
 
-    public TweetModel get(final int i) {
-        return tweets.get(i);
+    private static final class Parsed {
+        final TweetStore store;
+        final long ref;
+        final ImmutableTweetModel tweet;
+
+        Parsed(final TweetStore store, final long ref, final ImmutableTweetModel tweet) {
+            this.store = store;
+            this.ref = ref;
+            this.tweet = tweet;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the tweets file for changes made by other programs and has the
+ * corpus catch up with them.
+ *
+ * Uses a {@link WatchService} on the file's directory where the platform
+ * supports it, but also checks the file every <code>pollMillis</code>
+ * regardless, as some file systems (e.g. network mounts) never report changes.
+ */
+public class TweetFileWatcher implements Closeable {
+
+    /**
+     * Told about changes to the corpus caused by changes to the file.
+     */
+    public interface Listener {
+        default void tweetsAppended(List<Long> keys) {}
+
+        /**
+         * Called when the file has been rewritten, and again at each later
+         * check until the corpus has been reloaded. By default, the corpus is
+         * reloaded there and then, on the watcher's thread.
+         */
+        default void fileRewritten(TweetCorpusModel model) {
+            model.reloadTweets();
+        }
+    }
+
+    private final TweetCorpusModel model;
+    private final Path file;
+    private final long pollMillis;
+    private final Listener listener;
+    private final Thread thread;
+    private WatchService watchService;
+    private volatile boolean running = true;
+
+    public TweetFileWatcher(
+        final TweetCorpusModel model,
+        final String tweetsFile,
+        final long pollMillis,
+        final Listener listener
+    ) {
+        this.model = model;
+        this.file = Paths.get(tweetsFile).toAbsolutePath();
+        this.pollMillis = pollMillis;
+        this.listener = listener;
+        this.thread = new Thread(this::run, "tweet-file-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            file.getParent().register(
+                watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE
+            );
+            System.out.println("Watching " + file + " for changes");
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Cannot watch " + file + " (" + e.getMessage() + "), so polling it instead");
+            watchService = null;
+        }
+        thread.start();
+    }
+
+    private void run() {
+        long lastCheck = System.nanoTime();
+        while (running) {
+            boolean changed = false;
+            try {
+                final long untilCheck = pollMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastCheck);
+                if (watchService != null) {
+                    final WatchKey key = watchService.poll(Math.max(1L, untilCheck), TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        changed = key.pollEvents().stream()
+                            .map(WatchEvent::context)
+                            .anyMatch(p -> p instanceof Path && file.getFileName().equals(p));
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(Math.max(1L, untilCheck));
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            // events for other files in the directory (e.g. the retweet log) don't put off the regular check
+            if (changed || System.nanoTime() - lastCheck >= TimeUnit.MILLISECONDS.toNanos(pollMillis)) {
+                checkFile();
+                lastCheck = System.nanoTime();
+            }
+        }
+    }
+
+    private void checkFile() {
+        final TweetCorpusModel.FileChange change = model.catchUp(
+            (keys, bytesRead, totalBytes) -> listener.tweetsAppended(keys)
+        );
+        if (change == TweetCorpusModel.FileChange.REWRITTEN) {
+            listener.fileRewritten(model);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        thread.interrupt();
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
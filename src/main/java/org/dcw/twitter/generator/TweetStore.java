@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+/**
+ * Holds the raw UTF-8 JSON of the tweets in a {@link TweetCorpusModel}.
+ *
+ * Stores are append-only: each tweet stored gets a reference which will always
+ * read back the same bytes, so {@link CorpusSnapshot}s can hold references
+ * rather than the bytes themselves. Space used by tweets that are removed or
+ * replaced is only reclaimed when the corpus is reloaded and a fresh store is
+ * started, so until then it is still counted by {@link #getTweetsStored()} and
+ * {@link #getBytesStored()}. Appends must be serialised by the caller; reads are safe from any
+ * thread, once the reference has been safely published to it.
+ */
+public interface TweetStore {
+
+    /**
+     * @param json A tweet's raw JSON.
+     * @return A reference with which to read the JSON back.
+     */
+    long append(byte[] json);
+
+    /**
+     * @param ref A reference returned by {@link #append(byte[])}.
+     * @return The stored JSON, which must not be modified.
+     */
+    byte[] read(long ref);
+
+    /**
+     * @return A new, empty store of the same kind.
+     */
+    TweetStore emptyCopy();
+
+    /**
+     * @return The number of tweets appended, including any since removed or replaced.
+     */
+    long getTweetsStored();
+
+    /**
+     * @return The number of bytes of JSON appended, including that of tweets since
+     *         removed or replaced.
+     */
+    long getBytesStored();
+
+    /**
+     * @return The number of bytes of memory set aside for the JSON.
+     */
+    long getBytesReserved();
+
+    boolean isOffHeap();
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+/**
+ * Reports on the memory used by a {@link TweetCorpusModel}'s {@link TweetStore}
+ * and its cache of parsed tweets, e.g. in JConsole or VisualVM.
+ *
+ * The stored figures include tweets since removed or replaced, whose space is
+ * only reclaimed when the corpus is reloaded.
+ */
+public interface TweetStoreMXBean {
+    boolean isOffHeap();
+
+    /** @return The number of tweets in the corpus. */
+    long getTweetCount();
+
+    /** @return The number of tweets in the store, including any removed or replaced. */
+    long getTweetsStored();
+
+    long getBytesStored();
+
+    long getBytesReserved();
+
+    long getParsedCacheSize();
+
+    double getParsedCacheHitRate();
+
+    long getParsedCacheEvictions();
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.google.common.collect.ImmutableMultiset;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class CorpusAnalyticsTest {
+
+    // never loaded or saved, so the corpus only lives in memory
+    private static final String NO_FILE = "no-such-tweets-file.json";
+
+    @Test
+    public void oddlyShapedValuesAreSkippedWhole() throws IOException {
+        final TweetCorpusModel model = new TweetCorpusModel(NO_FILE);
+        model.addTweet(
+            "{\"lang\":{\"user\":{\"screen_name\":\"inside_lang\"}}," +
+            "\"created_at\":[{\"user\":{\"screen_name\":\"inside_created_at\"}}]," +
+            "\"user\":{\"screen_name\":\"author\"},\"entities\":{\"hashtags\":[{\"text\":\"QandA\"}]}}"
+        );
+        model.addTweet(
+            "{\"lang\":\"en\",\"created_at\":\"Mon Aug 15 10:11:12 +0000 2016\"," +
+            "\"user\":{\"screen_name\":\"author\"}}"
+        );
+
+        final CorpusAnalytics.Report report = CorpusAnalytics.analyse(model.snapshot());
+        assertEquals(2, report.getTweetCount());
+        assertEquals(0, report.getUnreadableCount());
+        assertEquals(ImmutableMultiset.of("author", "author"), report.getAuthors());
+        assertEquals(ImmutableMultiset.of("qanda"), report.getHashtags());
+        assertEquals(ImmutableMultiset.of("und", "en"), report.getLanguages());
+        assertEquals(Collections.singletonMap(LocalDate.of(2016, 8, 15), 1L), report.getDays());
+        assertEquals(1, report.getHours()[10]);
+    }
+}
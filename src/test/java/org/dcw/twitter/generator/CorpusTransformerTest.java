@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CorpusTransformerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static CorpusTransformer anonymiser() {
+        return new CorpusTransformer()
+            .keepIf("lang", "en")
+            .drop("entities.urls")
+            .set("user.location", JsonNodeFactory.instance.nullNode())
+            .pseudonymise("user.screen_name")
+            .pseudonymise("user.id")
+            .pseudonymise("entities.user_mentions.[*].screen_name");
+    }
+
+    /**
+     * @return Tweets by and mentioning accounts in a scrambled order, over many batches.
+     */
+    private static List<String> tweets(final int n) {
+        final List<String> tweets = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int author = (i * 7919) % 1000;
+            final int mentioned = (i * 104729) % 1000;
+            tweets.add(
+                "{\"id_str\":\"" + (i + 1) + "\",\"lang\":\"" + (i % 5 == 0 ? "fr" : "en") + "\"," +
+                "\"user\":{\"id\":" + (author + 100) + ",\"screen_name\":\"user" + author + "\",\"location\":\"Here\"}," +
+                "\"entities\":{\"urls\":[],\"user_mentions\":[{\"screen_name\":\"user" + mentioned + "\"}]}}"
+            );
+        }
+        return tweets;
+    }
+
+    private static List<String> transform(final Path input, final int threads) throws IOException {
+        final Path output = input.resolveSibling("out-" + threads + ".json");
+        final CorpusTransformer.Result result = anonymiser().transform(input, output, threads);
+        assertEquals(Files.readAllLines(input).size(), result.getRead());
+        return Files.readAllLines(output, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void outputDoesNotDependOnTheNumberOfThreads() throws IOException {
+        final Path input = folder.newFile("tweets.json").toPath();
+        Files.write(input, tweets(5000), StandardCharsets.UTF_8);
+
+        final List<String> single = transform(input, 1);
+        assertEquals(4000, single.size());
+        for (final int threads : new int[] {2, 8}) {
+            assertEquals(threads + " threads", single, transform(input, threads));
+        }
+    }
+
+    @Test
+    public void pseudonymsAreHandedOutInOrderOfFirstAppearance() throws IOException {
+        final Path input = folder.newFile("tweets.json").toPath();
+        final List<String> tweets = tweets(5000);
+        Files.write(input, tweets, StandardCharsets.UTF_8);
+
+        // stages apply in order: the author's name, their ID, then the accounts mentioned
+        final Set<String> names = new LinkedHashSet<>();
+        for (final String line : tweets) {
+            final JsonNode tweet = Json.readTree(line);
+            if ("en".equals(tweet.path("lang").asText())) {
+                names.add(tweet.path("user").path("screen_name").asText());
+                names.add(tweet.path("user").path("id").asText());
+                names.add(tweet.path("entities").path("user_mentions").path(0).path("screen_name").asText());
+            }
+        }
+        final List<String> order = new ArrayList<>(names);
+
+        final List<String> out = transform(input, 8);
+        int i = 0;
+        for (final String line : tweets) {
+            final JsonNode original = Json.readTree(line);
+            if (! "en".equals(original.path("lang").asText())) {
+                continue;
+            }
+            final JsonNode tweet = Json.readTree(out.get(i++));
+            final JsonNode user = tweet.path("user");
+            assertEquals(
+                "anon_" + (order.indexOf(original.path("user").path("screen_name").asText()) + 1),
+                user.path("screen_name").asText()
+            );
+            assertTrue("numbers stay numbers", user.path("id").isNumber());
+            assertEquals(order.indexOf(original.path("user").path("id").asText()) + 1, user.path("id").asLong());
+            assertTrue(user.path("location").isNull());
+            assertTrue(tweet.path("entities").path("urls").isMissingNode());
+            assertEquals(
+                "anon_" + (order.indexOf(
+                    original.path("entities").path("user_mentions").path(0).path("screen_name").asText()
+                ) + 1),
+                tweet.path("entities").path("user_mentions").path(0).path("screen_name").asText()
+            );
+        }
+        assertEquals(out.size(), i);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IdIndexTest {
+
+    private static void put(final IdIndex index, final String idStr, final long key) {
+        index.put(IdIndex.parse(idStr), idStr, key);
+    }
+
+    private static void remove(final IdIndex index, final String idStr, final long key) {
+        index.remove(IdIndex.parse(idStr), idStr, key);
+    }
+
+    @Test
+    public void parsesOnlyCanonicalPositiveLongs() {
+        assertEquals(765152011021000704L, IdIndex.parse("765152011021000704"));
+        assertEquals(Long.MAX_VALUE, IdIndex.parse(Long.toString(Long.MAX_VALUE)));
+        assertEquals(IdIndex.NO_ID, IdIndex.parse(""));
+        assertEquals(IdIndex.NO_ID, IdIndex.parse("0"));
+        assertEquals(IdIndex.NO_ID, IdIndex.parse("0123"));
+        assertEquals(IdIndex.NO_ID, IdIndex.parse("-5"));
+        assertEquals(IdIndex.NO_ID, IdIndex.parse("12a"));
+        assertEquals(IdIndex.NO_ID, IdIndex.parse("9223372036854775808")); // too big
+    }
+
+    @Test
+    public void findsNumericAndOtherIds() {
+        final IdIndex index = new IdIndex();
+        put(index, "765152011021000704", 1);
+        put(index, "not-a-number", 2);
+        put(index, "", 3); // no ID, so never found
+        assertEquals(1, index.get("765152011021000704"));
+        assertEquals(2, index.get("not-a-number"));
+        assertEquals(IdIndex.NO_KEY, index.get(""));
+        assertEquals(IdIndex.NO_KEY, index.get("765152011021000705"));
+    }
+
+    @Test
+    public void keepsEveryCopyOfAnId() {
+        for (final String idStr : new String[] {"765", "abc"}) {
+            final IdIndex index = new IdIndex();
+            put(index, idStr, 1);
+            put(index, idStr, 5);
+            put(index, idStr, 3);
+            assertEquals("the newest", 5, index.get(idStr));
+            remove(index, idStr, 5);
+            assertEquals("a surviving copy", 3, index.get(idStr));
+            remove(index, idStr, 7); // not there
+            remove(index, idStr, 3);
+            assertEquals(1, index.get(idStr));
+            remove(index, idStr, 1);
+            assertEquals(IdIndex.NO_KEY, index.get(idStr));
+        }
+    }
+
+    @Test
+    public void survivesGrowthAndRemovals() {
+        final IdIndex index = new IdIndex();
+        final int n = 100_000; // many rebuilds, some with lots of removed entries
+        for (long id = 1; id <= n; id++) {
+            put(index, Long.toString(id), id * 10);
+            if (id % 3 == 0) {
+                remove(index, Long.toString(id), id * 10);
+            }
+        }
+        for (long id = 1; id <= n; id++) {
+            assertEquals(id % 3 == 0 ? IdIndex.NO_KEY : id * 10, index.get(Long.toString(id)));
+        }
+        index.clear();
+        assertEquals(IdIndex.NO_KEY, index.get("1"));
+    }
+
+    @Test
+    public void readersOnlySeeKeysOfTheIdTheyAskFor() throws InterruptedException {
+        final IdIndex index = new IdIndex();
+        final int n = 200_000;
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            while (! done.get()) {
+                final long id = 1 + ThreadLocalRandom.current().nextInt(n);
+                final long key = index.get(Long.toString(id));
+                if (key != IdIndex.NO_KEY && key != id * 10) {
+                    failure.compareAndSet(null, "ID " + id + " gave key " + key);
+                }
+            }
+        });
+        reader.start();
+        for (long id = 1; id <= n; id++) { // the only writer, growing and removing throughout
+            put(index, Long.toString(id), id * 10);
+            if (id % 2 == 0) {
+                remove(index, Long.toString(id / 2), id * 5);
+            }
+        }
+        done.set(true);
+        reader.join();
+        assertNull(failure.get());
+    }
+}
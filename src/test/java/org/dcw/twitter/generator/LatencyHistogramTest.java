@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void anEmptyHistogramReportsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(99.9));
+    }
+
+    @Test
+    public void smallLatenciesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 8; micros++) {
+            histogram.record(micros);
+        }
+        histogram.record(-3); // e.g. from a clock stepping back, and counted as 0
+        assertEquals(9, histogram.count());
+        assertEquals(0, histogram.percentile(1));
+        assertEquals(4, histogram.percentile(50));
+        assertEquals(8, histogram.percentile(100));
+        assertEquals(8, histogram.max());
+    }
+
+    @Test
+    public void percentilesAreUpperBoundsWithinAnEighth() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final List<Long> recorded = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            final long micros = (long) Math.exp(ThreadLocalRandom.current().nextDouble(0, Math.log(1e9)));
+            histogram.record(micros);
+            recorded.add(micros);
+        }
+        recorded.sort(null);
+        for (final double percentile : new double[] {10, 50, 90, 99, 99.9, 99.99}) {
+            final long exact = recorded.get((int) Math.ceil(recorded.size() * percentile / 100.0) - 1);
+            final long reported = histogram.percentile(percentile);
+            assertTrue(percentile + ": " + reported + " < " + exact, reported >= exact);
+            assertTrue(percentile + ": " + reported + " vs " + exact, reported <= exact + exact / 8);
+        }
+        assertEquals(recorded.get(recorded.size() - 1).longValue(), histogram.percentile(100));
+        assertEquals(recorded.get(recorded.size() - 1).longValue(), histogram.max());
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 1; i <= 100_000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400_000, histogram.count());
+        assertEquals(100_000, histogram.max());
+        final long median = histogram.percentile(50);
+        assertTrue(String.valueOf(median), median >= 50_000 && median <= 50_000 + 50_000 / 8);
+    }
+}
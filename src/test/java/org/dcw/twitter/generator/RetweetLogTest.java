@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetweetLogTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // long enough that nothing is forced to disk before the log is closed
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    private static String retweet(final long id, final String retweeter, final long sourceId) {
+        return "{\"id_str\":\"" + id + "\",\"user\":{\"screen_name\":\"" + retweeter + "\"}," +
+            "\"retweeted_status\":{\"id_str\":\"" + sourceId + "\",\"text\":\"tweet " + sourceId + "\"}}";
+    }
+
+    private static List<String> idsOf(final List<RetweetLog.Entry> entries) {
+        final List<String> ids = new ArrayList<>();
+        entries.forEach(e -> ids.add(e.getIdStr()));
+        return ids;
+    }
+
+    private static void awaitSize(final RetweetLog log, final int size) throws InterruptedException {
+        for (int i = 0; log.size() != size && i < 500; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals("written", size, log.size());
+    }
+
+    @Test
+    public void closingWritesEverythingQueued() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("tweets.json" + RetweetLog.SUFFIX);
+        final int n = 10_000; // more than one group
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            for (int i = 1; i <= n; i++) {
+                log.append(retweet(1000 + i, i % 2 == 0 ? "even" : "odd", i % 10));
+            }
+        }
+        assertEquals(n, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            assertEquals(n, log.size());
+            final List<RetweetLog.Entry> odd = log.findByRetweeter("odd");
+            assertEquals(n / 2, odd.size());
+            assertEquals("in the order logged", "1001", odd.get(0).getIdStr());
+            assertEquals("1003", odd.get(1).getIdStr());
+            final List<RetweetLog.Entry> ofThree = log.findBySource("3");
+            assertEquals(n / 10, ofThree.size());
+            assertEquals("odd", ofThree.get(0).getRetweeter());
+            assertEquals(retweet(1003, "odd", 3), log.readRetweet(ofThree.get(0)));
+        }
+    }
+
+    @Test
+    public void appendingAfterClosingIsRefused() throws IOException {
+        final RetweetLog log = new RetweetLog(folder.newFile("closed" + RetweetLog.SUFFIX).toPath(), NEVER);
+        log.close();
+        try {
+            log.append(retweet(1, "late", 1));
+            fail("appended to a closed log");
+        } catch (IllegalStateException expected) {
+            // as documented
+        }
+        assertEquals(0, log.size());
+    }
+
+    @Test
+    public void malformedRetweetsAreSkippedWithoutLosingTheRest() throws IOException {
+        final Path file = folder.newFile("malformed" + RetweetLog.SUFFIX).toPath();
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            log.append(retweet(1, "a", 10));
+            log.append("[\"not a retweet\"]");
+            log.append("{\"id_str\":");
+            log.append(retweet(2, "a", 10));
+        }
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            assertEquals(2, log.size());
+            assertEquals("[1, 2]", idsOf(log.findByRetweeter("a")).toString());
+        }
+    }
+
+    @Test
+    public void retweetsLoggedByAnotherProgramAreIndexedBeforeWriting() throws Exception {
+        final Path file = folder.newFile("shared" + RetweetLog.SUFFIX).toPath();
+        try (RetweetLog ui = new RetweetLog(file, NEVER); RetweetLog server = new RetweetLog(file, NEVER)) {
+            ui.append(retweet(1, "ui", 10));
+            awaitSize(ui, 1);
+            server.append(retweet(2, "server", 10));
+            awaitSize(server, 2);
+            assertEquals("[1, 2]", idsOf(server.findBySource("10")).toString());
+            assertEquals(retweet(1, "ui", 10), server.readRetweet(server.findByRetweeter("ui").get(0)));
+
+            ui.append(retweet(3, "ui", 10));
+            awaitSize(ui, 3);
+            assertEquals("[1, 2, 3]", idsOf(ui.findBySource("10")).toString());
+        }
+        assertEquals(3, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void aTruncatedLogIsIndexedAgain() throws Exception {
+        final Path file = folder.newFile("truncated" + RetweetLog.SUFFIX).toPath();
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            log.append(retweet(1, "a", 10));
+            log.append(retweet(2, "a", 10));
+            awaitSize(log, 2);
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(0);
+            }
+            log.append(retweet(3, "b", 10));
+            awaitSize(log, 1);
+            assertTrue(log.findByRetweeter("a").isEmpty());
+            assertEquals("[3]", idsOf(log.findBySource("10")).toString());
+        }
+        assertEquals(1, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void anIncompleteLastEntryIsDiscardedOnOpening() throws IOException {
+        final Path file = folder.newFile("crashed" + RetweetLog.SUFFIX).toPath();
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            log.append(retweet(1, "a", 10));
+        }
+        final long complete = Files.size(file);
+        Files.write(file, "{\"id_str\":\"2\",\"retw".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            assertEquals(1, log.size());
+            assertEquals(complete, Files.size(file));
+            log.append(retweet(3, "a", 10));
+        }
+        try (RetweetLog log = new RetweetLog(file, NEVER)) {
+            assertEquals("[1, 3]", idsOf(log.findByRetweeter("a")).toString());
+        }
+    }
+}
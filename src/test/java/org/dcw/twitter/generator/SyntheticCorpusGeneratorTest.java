@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticCorpusGeneratorTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int COUNT = 10_000; // over several chunks
+
+    private List<String> generate(final long seed, final int threads) throws IOException {
+        final Path output = folder.getRoot().toPath().resolve(seed + "-" + threads + ".json");
+        new SyntheticCorpusGenerator(seed, 500, SyntheticCorpusGenerator.DEFAULT_RETWEET_RATIO)
+            .generate(output, COUNT, threads);
+        return Files.readAllLines(output, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void theSameSeedGivesTheSameCorpusWithAnyNumberOfThreads() throws IOException {
+        final List<String> single = generate(42, 1);
+        assertEquals(COUNT, single.size());
+        assertEquals(single, generate(42, 3));
+        assertEquals(single, generate(42, 8));
+        assertNotEquals(single, generate(43, 8));
+    }
+
+    @Test
+    public void tweetsAreDistinctAndLookLikeTheSample() throws IOException {
+        final Set<String> ids = new HashSet<>();
+        int retweets = 0;
+        for (final String line : generate(7, 4)) {
+            final JsonNode tweet = Json.readTree(line);
+            final String idStr = tweet.path("id_str").asText();
+            assertTrue("unique " + idStr, ids.add(idStr));
+            assertEquals(idStr, tweet.path("id").asText());
+            assertFalse(tweet.path("user").path("screen_name").asText().isEmpty());
+            assertFalse(tweet.path("created_at").asText().isEmpty());
+            final JsonNode original = tweet.path("retweeted_status");
+            if (! original.isMissingNode()) {
+                retweets++;
+                assertTrue(
+                    tweet.path("text").asText().startsWith("RT @" + original.path("user").path("screen_name").asText())
+                );
+            }
+        }
+        assertTrue("about 30% retweets: " + retweets, retweets > COUNT / 4 && retweets < COUNT * 7 / 20);
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017 Derek Weber
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.dcw.twitter.generator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TweetCorpusModelTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    // never loaded or saved, so the corpus only lives in memory
+    private static final String NO_FILE = "no-such-tweets-file.json";
+
+    private static String tweet(final long id) {
+        return "{\"id_str\":\"" + id + "\",\"text\":\"tweet " + id + "\",\"user\":{\"screen_name\":\"u" + id + "\"}}";
+    }
+
+    private static void writeTweets(final Path file, final long... ids) throws IOException {
+        final StringBuilder lines = new StringBuilder();
+        for (final long id : ids) {
+            lines.append(tweet(id)).append('\n');
+        }
+        Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void append(final Path file, final String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+
+    private static String idOf(final ImmutableTweetModel tweet) {
+        return tweet.getRoot().path("id_str").asText();
+    }
+
+    @Test
+    public void removalsKeepTheRestInOrder() throws IOException {
+        final TweetCorpusModel model = new TweetCorpusModel(NO_FILE);
+        final int n = 3 * CorpusIndex.CHUNK_SIZE + 5;
+        final List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            keys.add(model.addTweet(tweet(i)));
+        }
+        final CorpusSnapshot before = model.snapshot();
+
+        // every third tweet, and the whole of the second chunk
+        final List<Long> expectedKeys = new ArrayList<>();
+        final List<String> expectedIds = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (i % 3 == 0 || i / CorpusIndex.CHUNK_SIZE == 1) {
+                assertTrue(model.removeByKey(keys.get(i)));
+            } else {
+                expectedKeys.add(keys.get(i));
+                expectedIds.add(String.valueOf(i));
+            }
+        }
+        assertFalse("removed twice", model.removeByKey(keys.get(0)));
+
+        final CorpusSnapshot after = model.snapshot();
+        assertEquals(expectedKeys, new ArrayList<>(after.getKeys()));
+        for (int i = 0; i < after.size(); i++) {
+            assertEquals(expectedIds.get(i), idOf(after.get(i)));
+        }
+        assertNull(model.getByKey(keys.get(0)));
+        assertEquals("4", idOf(model.getByKey(keys.get(4))));
+        assertFalse(model.findKeyById("0").isPresent());
+        assertEquals(keys.get(4), model.findKeyById("4").get());
+
+        // snapshots never change
+        assertEquals(n, before.size());
+        assertEquals("0", idOf(before.get(0)));
+        assertEquals(keys.get(CorpusIndex.CHUNK_SIZE), Long.valueOf(before.getKey(CorpusIndex.CHUNK_SIZE)));
+    }
+
+    @Test
+    public void removingACopyOfADuplicatedTweetLeavesTheOtherFindable() throws IOException {
+        final TweetCorpusModel model = new TweetCorpusModel(NO_FILE);
+        final long first = model.addTweet(tweet(765));
+        final long second = model.addTweet(tweet(765));
+        assertEquals(Long.valueOf(second), model.findKeyById("765").get());
+
+        assertTrue(model.removeByKey(second));
+        assertEquals(1, model.size());
+        assertEquals(Long.valueOf(first), model.findKeyById("765").get());
+        assertTrue(model.removeByKey(first));
+        assertFalse(model.findKeyById("765").isPresent());
+    }
+
+    @Test
+    public void concurrentAddsAndRemovesKeepSnapshotsConsistent() throws Exception {
+        final TweetCorpusModel model = new TweetCorpusModel(NO_FILE);
+        final Map<Long, Long> idsByKey = new ConcurrentHashMap<>();
+        final int initial = 10_000;
+        for (long id = 0; id < initial; id++) {
+            idsByKey.put(model.addTweet(tweet(id)), id);
+        }
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Set<Long> removed = ConcurrentHashMap.newKeySet();
+        final AtomicLong snapshotsChecked = new AtomicLong();
+        final List<Thread> threads = new ArrayList<>();
+
+        threads.add(new Thread(() -> { // adds
+            try {
+                for (long id = initial; ! stop.get(); id++) {
+                    idsByKey.put(model.addTweet(tweet(id)), id);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }));
+        threads.add(new Thread(() -> { // removes
+            try {
+                while (! stop.get()) {
+                    final CorpusSnapshot snapshot = model.snapshot();
+                    if (snapshot.size() == 0) {
+                        continue; // removed faster than added, for now
+                    }
+                    final long key = snapshot.getKey(ThreadLocalRandom.current().nextInt(snapshot.size()));
+                    if (model.removeByKey(key)) {
+                        removed.add(key);
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }));
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> { // checks each snapshot is ordered and stays put
+                try {
+                    while (! stop.get()) {
+                        final CorpusSnapshot snapshot = model.snapshot();
+                        long last = -1;
+                        for (int i = 0; i < snapshot.size(); i++) {
+                            final long key = snapshot.getKey(i);
+                            assertTrue("keys in order", key > last);
+                            last = key;
+                        }
+                        for (int n = 0; n < 100; n++) {
+                            final int i = ThreadLocalRandom.current().nextInt(snapshot.size());
+                            final ImmutableTweetModel tweet = snapshot.get(i);
+                            final Long id = idsByKey.get(snapshot.getKey(i));
+                            if (id != null) { // the adder may not have recorded it yet
+                                assertEquals(String.valueOf(id), idOf(tweet));
+                            }
+                            assertEquals("tweet " + idOf(tweet), tweet.getRoot().path("text").asText());
+                        }
+                        snapshotsChecked.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        TimeUnit.SECONDS.sleep(2);
+        stop.set(true);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Failed under concurrent use", failure.get());
+        }
+        assertTrue("readers made progress", snapshotsChecked.get() > 0);
+
+        assertEquals(idsByKey.size() - removed.size(), model.size());
+        for (final Map.Entry<Long, Long> e : idsByKey.entrySet()) {
+            final long key = e.getKey();
+            final String id = String.valueOf(e.getValue());
+            if (removed.contains(key)) {
+                assertNull(model.getByKey(key));
+                assertFalse(model.findKeyById(id).isPresent());
+            } else {
+                assertNotNull(model.getByKey(key));
+                assertEquals(Long.valueOf(key), model.findKeyById(id).get());
+            }
+        }
+    }
+
+    @Test
+    public void catchUpLeavesAPartlyWrittenLineForNextTime() throws IOException {
+        final File file = folder.newFile("tweets.json");
+        writeTweets(file.toPath(), 1, 2);
+        final TweetCorpusModel model = new TweetCorpusModel(file.getPath());
+        model.loadTweets();
+        final List<Long> added = new ArrayList<>();
+        final TweetCorpusModel.LoadListener listener = (keys, read, total) -> added.addAll(keys);
+
+        final String fourth = tweet(4);
+        final int split = fourth.length() / 2;
+        append(file.toPath(), fourth.substring(0, split));
+        assertEquals(TweetCorpusModel.FileChange.NONE, model.catchUp(listener));
+        assertEquals(2, model.size());
+
+        append(file.toPath(), fourth.substring(split) + "\n" + tweet(5).substring(0, split));
+        assertEquals(TweetCorpusModel.FileChange.APPENDED, model.catchUp(listener));
+        assertEquals(3, model.size());
+        assertEquals(1, added.size());
+        assertEquals("4", idOf(model.getByKey(added.get(0))));
+
+        append(file.toPath(), tweet(5).substring(split) + "\n");
+        assertEquals(TweetCorpusModel.FileChange.APPENDED, model.catchUp(listener));
+        assertEquals(4, model.size());
+        assertEquals("5", idOf(model.getByKey(added.get(1))));
+        assertEquals(TweetCorpusModel.FileChange.NONE, model.catchUp(listener));
+    }
+
+    @Test
+    public void rewrittenFileIsLeftToReloadAndRetriedUntilReadable() throws IOException {
+        final File file = folder.newFile("tweets.json");
+        writeTweets(file.toPath(), 1, 2, 3);
+        final TweetCorpusModel model = new TweetCorpusModel(file.getPath());
+        model.loadTweets();
+        assertEquals(3, model.size());
+
+        writeTweets(file.toPath(), 7, 8);
+        assertEquals(TweetCorpusModel.FileChange.REWRITTEN, model.catchUp((keys, read, total) -> {}));
+        assertEquals("left for the caller to reload", 3, model.size());
+        assertFalse("not saved over", model.saveModel());
+        assertEquals(TweetCorpusModel.FileChange.REWRITTEN, model.catchUp((keys, read, total) -> {}));
+
+        // unreadable, as it's now a directory
+        assertTrue(file.delete());
+        assertTrue(file.mkdir());
+        assertFalse(model.reloadTweets());
+        assertFalse("not saved over", model.saveModel());
+        assertEquals("tried again", TweetCorpusModel.FileChange.REWRITTEN, model.catchUp((keys, read, total) -> {}));
+
+        assertTrue(file.delete());
+        writeTweets(file.toPath(), 7, 8);
+        assertTrue(model.reloadTweets());
+        assertEquals(2, model.size());
+        assertEquals("7", idOf(model.snapshot().get(0)));
+        assertEquals(TweetCorpusModel.FileChange.NONE, model.catchUp((keys, read, total) -> {}));
+        assertTrue(model.saveModel());
+    }
+}